@@ -18,12 +18,23 @@
 package org.vaadin.alump.distributionbar;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import com.vaadin.shared.MouseEventDetails;
+import com.vaadin.shared.Registration;
+import org.vaadin.alump.distributionbar.gwt.client.shared.DistributionBarClientRpc;
 import org.vaadin.alump.distributionbar.gwt.client.shared.DistributionBarServerRpc;
 import org.vaadin.alump.distributionbar.gwt.client.shared.DistributionBarState;
 import org.vaadin.alump.distributionbar.gwt.client.shared.DistributionBarState.Part;
+import org.vaadin.alump.distributionbar.gwt.client.shared.RenderMode;
+import org.vaadin.alump.distributionbar.gwt.client.shared.ValueFormat;
 
 import com.vaadin.ui.AbstractComponent;
 
@@ -39,14 +50,156 @@ public class DistributionBar extends AbstractComponent {
 	
 	private List<DistributionBarClickListener> clickListeners = new ArrayList<DistributionBarClickListener>();
 
+    /**
+     * Size changes smaller or equal to this are ignored
+     */
+    private double sizeEpsilon = 0.0;
+
+    /**
+     * Parts of bar. Written to state before client response when needed.
+     */
+    private final List<Part> parts = new ArrayList<Part>();
+
+    /**
+     * If true parts have to be written to state
+     */
+    private boolean partsDirty = true;
+
+    /**
+     * If true size and caption changes are sent as incremental updates
+     */
+    private boolean incrementalUpdates = false;
+
+    /**
+     * Indexes of parts with size changes not yet sent to client
+     */
+    private final Set<Integer> sizeDeltas = new TreeSet<Integer>();
+
+    /**
+     * Indexes of parts with caption changes not yet sent to client
+     */
+    private final Set<Integer> captionDeltas = new TreeSet<Integer>();
+
+    /**
+     * If true client has received incremental updates after parts were last
+     * written to state
+     */
+    private boolean deltasSent = false;
+
+    /**
+     * Number of captions sent as incremental updates after parts were last
+     * written to state. Client adds new captions to string table of state, so
+     * parts are written again when this reaches the limit.
+     */
+    private int captionDeltasSent = 0;
+
+    /**
+     * Minimum number of captions sent incrementally before parts are written
+     * to state again, to replace the string table of client
+     */
+    private static final int CAPTION_DELTAS_BEFORE_WRITE = 256;
+
+    private TooltipProvider tooltipProvider;
+
+    /**
+     * If true lazy loaded tooltips are refreshed when size or caption of part
+     * changes
+     */
+    private boolean refreshTooltipsOnChange = false;
+
+    /**
+     * Latest sizes offered by producer threads, not yet applied to parts.
+     * Null if there is nothing to apply.
+     */
+    private final AtomicReference<double[]> offeredSizes = new AtomicReference<double[]>();
+
+    /**
+     * Registration of poll listener applying offered sizes, null when detached
+     */
+    private Registration pollRegistration;
+
+    /**
+     * Visibility of bar as last reported by client. Always true if visibility
+     * is not reported.
+     */
+    private boolean clientVisible = true;
+
+    /**
+     * Get key of part as known by client
+     * @param index Index of part in client
+     * @return Key of part, null if not defined
+     */
+    private String getClientPartKey(int index) {
+        if (index >= 0 && index < getState(false).partCount()) {
+            return getState(false).readPart(index).getKey();
+        }
+        return null;
+    }
+
+    /**
+     * Convert index of part in client to current index of part. Keys are used
+     * to resolve the index, as parts might have been moved after client was
+     * updated.
+     * @param index Index of part in client
+     * @return Current index of part, -1 if part has been removed
+     */
+    private int toCurrentIndex(int index) {
+        String key = getClientPartKey(index);
+        if (key != null) {
+            return getPartIndex(key);
+        }
+        return index;
+    }
+
+    private void fireClickEvent(DistributionBarClickEvent event) {
+        for (DistributionBarClickListener listener : clickListeners) {
+            listener.onDistributionBarClicked(event);
+        }
+    }
+
     private final DistributionBarServerRpc serverRpc = new DistributionBarServerRpc() {
         @Override
         public void onItemClicked(int index, MouseEventDetails mouseEventDetails) {
-            DistributionBarClickEvent event = new DistributionBarClickEvent(DistributionBar.this, index, mouseEventDetails);
+            String key = getClientPartKey(index);
+            index = toCurrentIndex(index);
+            if (index < 0) {
+                return;
+            }
 
-            for (DistributionBarClickListener listener : clickListeners) {
-                listener.onDistributionBarClicked(event);
+            fireClickEvent(new DistributionBarClickEvent(DistributionBar.this, index, key,
+                    mouseEventDetails));
+        }
+
+        @Override
+        public void onItemRangeClicked(int firstIndex, int lastIndex, MouseEventDetails mouseEventDetails) {
+            firstIndex = toCurrentIndex(firstIndex);
+            lastIndex = toCurrentIndex(lastIndex);
+            if (firstIndex < 0 || lastIndex < firstIndex) {
+                return;
             }
+
+            fireClickEvent(new DistributionBarClickEvent(DistributionBar.this, firstIndex, lastIndex, null,
+                    mouseEventDetails));
+        }
+
+        @Override
+        public void onTooltipRequested(int index) {
+            // Index is from client, part might have moved after client was updated
+            int currentIndex = toCurrentIndex(index);
+            if (tooltipProvider == null || currentIndex < 0 || currentIndex >= parts.size()) {
+                // Client is always answered, so it can request the tooltip again. Invalid version is not cached.
+                getRpcProxy(DistributionBarClientRpc.class).setTooltip(index, -1, "");
+                return;
+            }
+
+            String content = tooltipProvider.getTooltip(DistributionBar.this, currentIndex);
+            getRpcProxy(DistributionBarClientRpc.class).setTooltip(index,
+                    parts.get(currentIndex).getTooltipVersion(), content == null ? "" : content);
+        }
+
+        @Override
+        public void onVisibilityChanged(boolean visible) {
+            setClientVisible(visible || !getState(false).reportVisibility);
         }
     };
 
@@ -73,7 +226,7 @@ public class DistributionBar extends AbstractComponent {
 
     	registerRpc(serverRpc);
         for (int i = 0; i < numberOfParts; ++i) {
-            getState().getParts().add(new Part());
+            parts.add(new Part());
         }
 
     }
@@ -100,6 +253,114 @@ public class DistributionBar extends AbstractComponent {
         return (DistributionBarState) super.getState(markDirty);
     }
 
+    @Override
+    public void attach() {
+        super.attach();
+        // New client side connector reports its visibility again
+        clientVisible = true;
+        applyOfferedSizes();
+        // Poll requests apply offered sizes on the session thread
+        pollRegistration = getUI().addPollListener(event -> applyOfferedSizes());
+    }
+
+    @Override
+    public void detach() {
+        if (pollRegistration != null) {
+            pollRegistration.remove();
+            pollRegistration = null;
+        }
+        super.detach();
+    }
+
+    @Override
+    public void beforeClientResponse(boolean initial) {
+        super.beforeClientResponse(initial);
+
+        applyOfferedSizes();
+
+        if (!initial && !clientVisible) {
+            // Changes of parts are held back until bar is visible again
+            return;
+        }
+
+        if (captionDeltasSent + captionDeltas.size() > Math.max(CAPTION_DELTAS_BEFORE_WRITE, parts.size())) {
+            // String table of client only grows with incremental captions, so it is replaced by writing all parts
+            partsDirty = true;
+        }
+
+        if (initial || partsDirty) {
+            sizeDeltas.clear();
+            captionDeltas.clear();
+
+            double[] oldSizes = getState(false).sizes;
+            int[] oldCaptions = getState(false).captions;
+            getState().writeParts(parts);
+
+            if (!initial && deltasSent) {
+                // Columns that did not change from what was sent earlier are not synced, so client would keep
+                // the values received as incremental updates. Resend those columns incrementally.
+                boolean resendSizes = Arrays.equals(oldSizes, getState(false).sizes);
+                boolean resendCaptions = Arrays.equals(oldCaptions, getState(false).captions);
+                for (int i = 0; i < parts.size(); ++i) {
+                    if (resendSizes) {
+                        sizeDeltas.add(i);
+                    }
+                    if (resendCaptions) {
+                        captionDeltas.add(i);
+                    }
+                }
+                sendDeltas();
+            }
+
+            partsDirty = false;
+            deltasSent = false;
+            captionDeltasSent = 0;
+        } else {
+            sendDeltas();
+        }
+    }
+
+    private void sendDeltas() {
+        if (!sizeDeltas.isEmpty()) {
+            int[] indexes = new int[sizeDeltas.size()];
+            double[] sizes = new double[sizeDeltas.size()];
+            int i = 0;
+            for (Integer index : sizeDeltas) {
+                indexes[i] = index;
+                sizes[i] = parts.get(index).getSize();
+                ++i;
+            }
+            getRpcProxy(DistributionBarClientRpc.class).updateSizes(indexes, sizes);
+            sizeDeltas.clear();
+            deltasSent = true;
+        }
+
+        if (!captionDeltas.isEmpty()) {
+            int[] indexes = new int[captionDeltas.size()];
+            String[] captions = new String[captionDeltas.size()];
+            int i = 0;
+            for (Integer index : captionDeltas) {
+                indexes[i] = index;
+                captions[i] = parts.get(index).getCaption();
+                ++i;
+            }
+            getRpcProxy(DistributionBarClientRpc.class).updateCaptions(indexes, captions);
+            captionDeltasSent += captionDeltas.size();
+            captionDeltas.clear();
+            deltasSent = true;
+        }
+    }
+
+    /**
+     * Get part with given index
+     * @param index Index of part
+     * @return Part with given index
+     * @throws IndexOutOfBoundsException If invalid index is given
+     */
+    Part getPart(int index) throws IndexOutOfBoundsException {
+        return parts.get(index);
+    }
+
     /**
      * Update multiple sizes once. If given list is smaller than number of parts
      * then parts at the end will not be updated. If given list has more sizes
@@ -109,9 +370,55 @@ public class DistributionBar extends AbstractComponent {
      *            Sizes in integer array
      */
     public void updatePartSizes(double[] partSizes) {
-        for (int i = 0; i < getNumberOfParts() && i < partSizes.length; ++i) {
-            getState().getParts().get(i).setSize(partSizes[i]);
+        update(editor -> {
+            for (int i = 0; i < getNumberOfParts() && i < partSizes.length; ++i) {
+                editor.setPartSize(i, partSizes[i]);
+            }
+        });
+    }
+
+    /**
+     * Offer new sizes for parts from any thread. This only stores the sizes
+     * to an atomic slot: session is not locked or accessed, and UI is not
+     * touched, so producer threads never wait for the session. If sizes are
+     * offered multiple times before they are applied, only the latest sizes
+     * are applied.
+     *
+     * Offered sizes are applied as with updatePartSizes by the thread holding
+     * the session lock: on poll requests of UI (see UI.setPollInterval),
+     * before any response where bar is sent to client, and when
+     * applyOfferedSizes is called. With server push, call applyOfferedSizes
+     * in UI.access at the rate bar should be updated.
+     *
+     * @param partSizes
+     *            Sizes of parts (0.0 or larger). Array is copied.
+     * @throws IllegalArgumentException If any of sizes is invalid
+     */
+    public void offerSizes(double[] partSizes) {
+        double[] sizes = partSizes.clone();
+        for (int i = 0; i < sizes.length; ++i) {
+            if (!(sizes[i] >= 0.0)) {
+                throw new IllegalArgumentException("Size must be zero or larger (" + sizes[i]
+                        + " given to part " + i + ")");
+            }
+        }
+
+        offeredSizes.set(sizes);
+    }
+
+    /**
+     * Apply the latest sizes offered with offerSizes. Session must be locked,
+     * e.g. call this inside UI.access.
+     *
+     * @return true if there were offered sizes to apply
+     */
+    public boolean applyOfferedSizes() {
+        double[] sizes = offeredSizes.getAndSet(null);
+        if (sizes != null) {
+            updatePartSizes(sizes);
+            return true;
         }
+        return false;
     }
 
     /**
@@ -141,11 +448,186 @@ public class DistributionBar extends AbstractComponent {
      *            Stylename added to part
      */
     public void setupPart(int index, double size, String tooltip, String styleName) {
+        update(editor -> editor.setPartSize(index, size)
+                .setPartTooltip(index, tooltip)
+                .setPartStyleName(index, styleName));
+    }
 
-        Part part = getState().getParts().get(index);
-        part.setSize(size);
-        part.setTooltip(tooltip);
-        part.setTooltip(styleName);
+    /**
+     * Modify multiple parts with one call. All changes done to given editor
+     * are validated once and then committed as a single state change. If any
+     * of changes is invalid, none of the changes are applied.
+     *
+     * @param changes
+     *            Callback that will do changes to given editor
+     * @return Reference to DistributionBar to allow call chaining
+     * @throws IllegalArgumentException If any of changes is invalid
+     */
+    public DistributionBar update(Consumer<DistributionBarEditor> changes) {
+        DistributionBarEditor editor = new DistributionBarEditor(this);
+        changes.accept(editor);
+        commit(editor);
+        return this;
+    }
+
+    /**
+     * Change sizes of multiple parts with one call.
+     *
+     * @param partSizes
+     *            Index of part to new size map. Only give valid indexes.
+     * @return Reference to DistributionBar to allow call chaining
+     * @throws IllegalArgumentException If any of sizes is invalid
+     */
+    public DistributionBar setPartSizes(Map<Integer, Double> partSizes) {
+        return update(editor -> {
+            for (Map.Entry<Integer, Double> entry : partSizes.entrySet()) {
+                if (entry.getValue() == null) {
+                    throw new IllegalArgumentException("Size can not be null (given to part " + entry.getKey() + ")");
+                }
+                editor.setPartSize(entry.getKey(), entry.getValue());
+            }
+        });
+    }
+
+    /**
+     * Validate and apply changes collected by editor
+     * @param editor Editor with changes
+     */
+    protected void commit(DistributionBarEditor editor) {
+        editor.validate();
+
+        boolean changed = false;
+        for (Map.Entry<Integer, Part> entry : editor.getChanges().entrySet()) {
+            int index = entry.getKey();
+            Part current = parts.get(index);
+            Part modified = entry.getValue();
+            if (isSameSize(current.getSize(), modified.getSize())) {
+                modified.setSize(current.getSize());
+            }
+            if (isSamePart(current, modified)) {
+                continue;
+            }
+
+            if (refreshTooltipsOnChange && tooltipProvider != null
+                    && modified.getTooltipVersion() == current.getTooltipVersion()) {
+                // Cached tooltip of client was loaded for old size or caption
+                modified.setTooltipVersion(current.getTooltipVersion() + 1);
+            }
+
+            parts.set(index, modified);
+            changed = true;
+
+            if (incrementalUpdates && !partsDirty && isSameDecoration(current, modified)) {
+                if (current.getSize() != modified.getSize()) {
+                    sizeDeltas.add(index);
+                }
+                if (!Objects.equals(current.getCaption(), modified.getCaption())) {
+                    captionDeltas.add(index);
+                }
+            } else {
+                partsDirty = true;
+            }
+        }
+
+        // Component is only marked dirty if there was actual change
+        if (changed) {
+            markPartsChanged();
+        }
+    }
+
+    /**
+     * Mark component dirty after parts have changed. If client has reported
+     * bar hidden, component is marked dirty only when bar is visible again.
+     */
+    private void markPartsChanged() {
+        if (clientVisible) {
+            markAsDirty();
+        }
+    }
+
+    private boolean hasPendingParts() {
+        return partsDirty || !sizeDeltas.isEmpty() || !captionDeltas.isEmpty();
+    }
+
+    private void setClientVisible(boolean visible) {
+        if (clientVisible == visible) {
+            return;
+        }
+
+        clientVisible = visible;
+        if (visible && hasPendingParts()) {
+            // Latest parts are sent, changes done while hidden are not replayed
+            markAsDirty();
+        }
+    }
+
+    private boolean isSameSize(double a, double b) {
+        return a == b || Math.abs(a - b) <= sizeEpsilon;
+    }
+
+    private static boolean isSamePart(Part a, Part b) {
+        return a.getSize() == b.getSize()
+                && Objects.equals(a.getCaption(), b.getCaption())
+                && isSameDecoration(a, b);
+    }
+
+    /**
+     * Compare fields of parts that can not be updated incrementally
+     */
+    private static boolean isSameDecoration(Part a, Part b) {
+        return Objects.equals(a.getTitle(), b.getTitle())
+                && Objects.equals(a.getTooltip(), b.getTooltip())
+                && Objects.equals(a.getStyleName(), b.getStyleName())
+                && Objects.equals(a.getName(), b.getName())
+                && Objects.equals(a.getKey(), b.getKey())
+                && a.getTooltipVersion() == b.getTooltipVersion();
+    }
+
+    /**
+     * Define if size and caption changes should be sent to client as
+     * incremental updates. When enabled only the changed sizes and captions
+     * are sent, instead of all the parts of the bar. Other changes will still
+     * cause full update.
+     *
+     * @param incremental
+     *            true to send incremental updates, false to always send all
+     *            parts (default)
+     */
+    public void setIncrementalUpdates(boolean incremental) {
+        incrementalUpdates = incremental;
+    }
+
+    /**
+     * See if size and caption changes are sent to client as incremental
+     * updates
+     * @return true if incremental updates are sent
+     */
+    public boolean isIncrementalUpdates() {
+        return incrementalUpdates;
+    }
+
+    /**
+     * Define how much size of part has to change before the change is sent to
+     * client. By default all changes are sent.
+     *
+     * @param epsilon
+     *            Size changes equal or smaller than this are ignored (0.0 or
+     *            larger)
+     */
+    public void setSizeEpsilon(double epsilon) {
+        if (epsilon < 0.0) {
+            throw new IllegalArgumentException("Epsilon must be zero or larger (" + epsilon + ")");
+        }
+        sizeEpsilon = epsilon;
+    }
+
+    /**
+     * Get how much size of part has to change before the change is sent to
+     * client.
+     * @return Size changes equal or smaller than this are ignored
+     */
+    public double getSizeEpsilon() {
+        return sizeEpsilon;
     }
 
     /**
@@ -158,11 +640,7 @@ public class DistributionBar extends AbstractComponent {
      * @return Reference to DistributionBar to allow call chaining
      */
     public DistributionBar setPartSize(int index, double size) {
-        if(size < 0.0) {
-            throw new IllegalArgumentException("Size must be zero or larger");
-        }
-        getState().getParts().get(index).setSize(size);
-        return this;
+        return update(editor -> editor.setPartSize(index, size));
     }
 
     /**
@@ -176,14 +654,7 @@ public class DistributionBar extends AbstractComponent {
      * @return Reference to DistributionBar to allow call chaining
      */
     public DistributionBar setPartSize(int index, double size, String caption) {
-        if(size < 0.0) {
-            throw new IllegalArgumentException("Size must be zero or larger (" + size + ")");
-        }
-        Part part = getState().getParts().get(index);
-        part.setSize(size);
-        part.setCaption(caption);
-
-        return this;
+        return update(editor -> editor.setPartSize(index, size, caption));
     }
 
     /**
@@ -193,7 +664,7 @@ public class DistributionBar extends AbstractComponent {
      * @throws IndexOutOfBoundsException If invalid index is given
      */
     public double getPartSize(int index) throws IndexOutOfBoundsException {
-        return getState(false).getParts().get(index).getSize();
+        return parts.get(index).getSize();
     }
 
     /**
@@ -207,8 +678,7 @@ public class DistributionBar extends AbstractComponent {
      * @return Reference to DistributionBar to allow call chaining
      */
     public DistributionBar setPartTitle(int index, String title) {
-        getState().getParts().get(index).setTitle(title);
-        return this;
+        return update(editor -> editor.setPartTitle(index, title));
     }
 
     /**
@@ -218,7 +688,7 @@ public class DistributionBar extends AbstractComponent {
      * @throws IndexOutOfBoundsException If invalid index is given
      */
     public String getPartCaption(int index) {
-        return getState(false).getParts().get(index).getTitle();
+        return parts.get(index).getTitle();
     }
 
     /**
@@ -232,8 +702,7 @@ public class DistributionBar extends AbstractComponent {
      *
      */
     public DistributionBar setPartCaption(int index, String caption) {
-        getState().getParts().get(index).setCaption(caption);
-        return this;
+        return update(editor -> editor.setPartCaption(index, caption));
     }
 
     /**
@@ -243,7 +712,7 @@ public class DistributionBar extends AbstractComponent {
      * @throws IndexOutOfBoundsException If invalid index is given
      */
     public String getPartTitle(int index) {
-        return getState().getParts().get(index).getTitle();
+        return parts.get(index).getTitle();
     }
 
     /**
@@ -257,8 +726,7 @@ public class DistributionBar extends AbstractComponent {
      * @return Reference to DistributionBar to allow call chaining
      */
     public DistributionBar setPartTooltip(int index, String tooltip) {
-        getState(false).getParts().get(index).setTooltip(tooltip);
-        return this;
+        return update(editor -> editor.setPartTooltip(index, tooltip));
     }
 
     /**
@@ -271,8 +739,196 @@ public class DistributionBar extends AbstractComponent {
      * @return Reference to DistributionBar to allow call chaining
      */
     public DistributionBar setPartStyleName(int index, String styleName) {
-        getState().getParts().get(index).setStyleName(styleName);
-        return this;
+        return update(editor -> editor.setPartStyleName(index, styleName));
+    }
+
+    /**
+     * Change name of given part. Name is used as {name} placeholder value in
+     * caption and tooltip templates.
+     *
+     * @param index
+     *            Index of part [0..N]. Only give valid indexes.
+     * @param name
+     *            Name of part
+     * @return Reference to DistributionBar to allow call chaining
+     */
+    public DistributionBar setPartName(int index, String name) {
+        return update(editor -> editor.setPartName(index, name));
+    }
+
+    /**
+     * Get current name of part
+     * @param index Index of part
+     * @return Name of part, null if not defined
+     * @throws IndexOutOfBoundsException If invalid index is given
+     */
+    public String getPartName(int index) {
+        return parts.get(index).getName();
+    }
+
+    /**
+     * Define template used for tooltips of parts without tooltip content.
+     * Template is rendered by client, so size changes do not require sending
+     * new tooltips. Placeholders {name} (name of part), {value} (size of
+     * part), {pct} (percentage of total), {total} (sum of sizes) and {index}
+     * are replaced with values of part.
+     *
+     * @param template
+     *            Template in XHTML format, null to not use template
+     */
+    public void setTooltipTemplate(String template) {
+        if (!Objects.equals(getState(false).tooltipTemplate, template)) {
+            getState().tooltipTemplate = template;
+        }
+    }
+
+    /**
+     * Get template used for tooltips of parts without tooltip content
+     * @return Template in XHTML format, null if not used
+     */
+    public String getTooltipTemplate() {
+        return getState(false).tooltipTemplate;
+    }
+
+    /**
+     * Define template used for captions of parts without caption. Supports
+     * same placeholders as tooltip template.
+     *
+     * @param template
+     *            Template, null to not use template
+     * @see #setTooltipTemplate(String)
+     */
+    public void setCaptionTemplate(String template) {
+        if (!Objects.equals(getState(false).captionTemplate, template)) {
+            getState().captionTemplate = template;
+        }
+    }
+
+    /**
+     * Get template used for captions of parts without caption
+     * @return Template, null if not used
+     */
+    public String getCaptionTemplate() {
+        return getState(false).captionTemplate;
+    }
+
+    /**
+     * Define how sizes are shown in parts without caption. Formatting is done
+     * by client, so captions do not have to be generated and sent to show
+     * formatted values.
+     *
+     * @param format
+     *            Format of values (ABSOLUTE by default)
+     */
+    public void setValueFormat(ValueFormat format) {
+        if (format == null) {
+            throw new IllegalArgumentException("Value format can not be null");
+        }
+        if (getState(false).valueFormat != format) {
+            getState().valueFormat = format;
+        }
+    }
+
+    /**
+     * Get how sizes are shown in parts without caption
+     * @return Format of values
+     */
+    public ValueFormat getValueFormat() {
+        return getState(false).valueFormat;
+    }
+
+    /**
+     * Define number pattern used to format sizes shown in parts without
+     * caption. Pattern syntax is the one of GWT NumberFormat (e.g. "#,##0.0").
+     * With PERCENTAGE format the pattern should contain percent sign.
+     *
+     * @param pattern
+     *            Number pattern, null to use default of value format
+     */
+    public void setValuePattern(String pattern) {
+        if (!Objects.equals(getState(false).valuePattern, pattern)) {
+            getState().valuePattern = pattern;
+        }
+    }
+
+    /**
+     * Get number pattern used to format sizes
+     * @return Number pattern, null if default of value format is used
+     */
+    public String getValuePattern() {
+        return getState(false).valuePattern;
+    }
+
+    /**
+     * Define provider for lazy loaded tooltips. Provider is called when user
+     * hovers part that does not have tooltip content defined with
+     * setPartTooltip. Loaded tooltips are cached by client until the tooltip
+     * is refreshed.
+     *
+     * @param provider
+     *            Provider of tooltips, null to disable lazy loaded tooltips
+     */
+    public void setTooltipProvider(TooltipProvider provider) {
+        tooltipProvider = provider;
+        if (getState(false).lazyTooltips != (provider != null)) {
+            getState().lazyTooltips = provider != null;
+        }
+    }
+
+    /**
+     * Get provider of lazy loaded tooltips
+     * @return Provider of tooltips, null if not defined
+     */
+    public TooltipProvider getTooltipProvider() {
+        return tooltipProvider;
+    }
+
+    /**
+     * Define if lazy loaded tooltips are refreshed when size or caption of
+     * part changes. Enable this if content given by tooltip provider depends
+     * on sizes. When disabled (default), client keeps cached tooltips until
+     * refreshTooltip is called. Changes with refresh can not be sent as
+     * incremental updates.
+     *
+     * @param refresh
+     *            true to refresh tooltip of part when its size or caption
+     *            changes
+     */
+    public void setRefreshTooltipsOnChange(boolean refresh) {
+        refreshTooltipsOnChange = refresh;
+    }
+
+    /**
+     * See if lazy loaded tooltips are refreshed when size or caption of part
+     * changes
+     * @return true if tooltips are refreshed on change
+     */
+    public boolean isRefreshTooltipsOnChange() {
+        return refreshTooltipsOnChange;
+    }
+
+    /**
+     * Mark lazy loaded tooltip of part as changed. Tooltip will be requested
+     * again from provider next time it is shown.
+     *
+     * @param index
+     *            Index of part [0..N]. Only give valid indexes.
+     */
+    public void refreshTooltip(int index) {
+        Part part = new Part(parts.get(index));
+        part.setTooltipVersion(part.getTooltipVersion() + 1);
+        parts.set(index, part);
+        partsDirty = true;
+        markPartsChanged();
+    }
+
+    /**
+     * Mark lazy loaded tooltips of all parts as changed
+     */
+    public void refreshTooltips() {
+        for (int i = 0; i < parts.size(); ++i) {
+            refreshTooltip(i);
+        }
     }
 
     /**
@@ -281,17 +937,163 @@ public class DistributionBar extends AbstractComponent {
      * @return Number of parts in distribution bar
      */
     public int getNumberOfParts() {
-        return getState().getParts().size();
+        return parts.size();
+    }
+
+    /**
+     * Add new part with key to the end of distribution bar
+     *
+     * @param key
+     *            Unique key of part
+     * @param size
+     *            Size of part (0.0 or larger)
+     * @return Reference to DistributionBar to allow call chaining
+     * @throws IllegalArgumentException If key is already used or size is invalid
+     */
+    public DistributionBar addPart(String key, double size) {
+        return addPart(key, size, null);
+    }
+
+    /**
+     * Add new part with key to the end of distribution bar
+     *
+     * @param key
+     *            Unique key of part
+     * @param size
+     *            Size of part (0.0 or larger)
+     * @param caption
+     *            Caption of part (null to show value)
+     * @return Reference to DistributionBar to allow call chaining
+     * @throws IllegalArgumentException If key is already used or size is invalid
+     */
+    public DistributionBar addPart(String key, double size, String caption) {
+        return addPart(parts.size(), key, size, caption);
+    }
+
+    /**
+     * Add new part with key to given index of distribution bar
+     *
+     * @param index
+     *            Index of new part [0..N]
+     * @param key
+     *            Unique key of part
+     * @param size
+     *            Size of part (0.0 or larger)
+     * @param caption
+     *            Caption of part (null to show value)
+     * @return Reference to DistributionBar to allow call chaining
+     * @throws IllegalArgumentException If key is already used, or size or index is invalid
+     */
+    public DistributionBar addPart(int index, String key, double size, String caption) {
+        if (index < 0 || index > parts.size()) {
+            throw new IllegalArgumentException("Index of new part must be between 0 and " + parts.size() + " ("
+                    + index + " given)");
+        } else if (key == null) {
+            throw new IllegalArgumentException("Key of part can not be null");
+        } else if (getPartIndex(key) >= 0) {
+            throw new IllegalArgumentException("Part with key '" + key + "' already exists");
+        } else if (!(size >= 0.0)) {
+            throw new IllegalArgumentException("Size must be zero or larger (" + size + ")");
+        }
+
+        Part part = new Part();
+        part.setKey(key);
+        part.setSize(size);
+        part.setCaption(caption);
+        parts.add(index, part);
+
+        partsDirty = true;
+        markPartsChanged();
+        return this;
+    }
+
+    /**
+     * Remove part with given key
+     *
+     * @param key
+     *            Key of part
+     * @return true if part was removed, false if there was no part with key
+     * @throws IllegalArgumentException If part is the only part of bar
+     */
+    public boolean removePart(String key) {
+        int index = getPartIndex(key);
+        if (index < 0) {
+            return false;
+        } else if (parts.size() == 1) {
+            throw new IllegalArgumentException("Distribution bar must have at least one part");
+        }
+
+        parts.remove(index);
+        partsDirty = true;
+        markPartsChanged();
+        return true;
+    }
+
+    /**
+     * Move part with given key to new index
+     *
+     * @param key
+     *            Key of part
+     * @param newIndex
+     *            New index of part [0..N]
+     * @return Reference to DistributionBar to allow call chaining
+     * @throws IllegalArgumentException If there is no part with key
+     * @throws IndexOutOfBoundsException If invalid new index is given
+     */
+    public DistributionBar movePart(String key, int newIndex) {
+        int index = getPartIndex(key);
+        if (index < 0) {
+            throw new IllegalArgumentException("Part with key '" + key + "' not found");
+        } else if (newIndex < 0 || newIndex >= parts.size()) {
+            throw new IndexOutOfBoundsException("Invalid index " + newIndex);
+        }
+
+        if (index != newIndex) {
+            parts.add(newIndex, parts.remove(index));
+            partsDirty = true;
+            markPartsChanged();
+        }
+        return this;
+    }
+
+    /**
+     * Get current index of part with given key
+     * @param key Key of part
+     * @return Index of part, -1 if there is no part with key
+     */
+    public int getPartIndex(String key) {
+        if (key == null) {
+            return -1;
+        }
+        for (int i = 0; i < parts.size(); ++i) {
+            if (key.equals(parts.get(i).getKey())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get key of part
+     * @param index Index of part
+     * @return Key of part, null if part was not added with key
+     * @throws IndexOutOfBoundsException If invalid index is given
+     */
+    public String getPartKey(int index) {
+        return parts.get(index).getKey();
     }
 
     private void changeStatePartsSize(int newSize) {
 
-        while (getState().getParts().size() < newSize) {
-            getState().getParts().add(new Part());
+        while (parts.size() < newSize) {
+            parts.add(new Part());
         }
-        while (getState().getParts().size() > newSize) {
-            getState().getParts().remove(newSize);
+        while (parts.size() > newSize) {
+            parts.remove(newSize);
         }
+
+        partsDirty = true;
+        markPartsChanged();
     }
 
     /**
@@ -316,7 +1118,7 @@ public class DistributionBar extends AbstractComponent {
 	public void addDistributionBarClickListener(
 			DistributionBarClickListener listener) {
 		
-		if (clickListeners.isEmpty()) {
+		if (clickListeners.isEmpty() && !getState(false).sendClicks) {
 			getState().sendClicks = true;
 		}
 		
@@ -331,7 +1133,7 @@ public class DistributionBar extends AbstractComponent {
 			DistributionBarClickListener listener) {
 		clickListeners.remove(listener);
 		
-		if (clickListeners.isEmpty()) {
+		if (clickListeners.isEmpty() && getState(false).sendClicks) {
 			getState().sendClicks = false;
 		}
 	}
@@ -341,7 +1143,9 @@ public class DistributionBar extends AbstractComponent {
      * @param zeroVisible true if zero sized are shown, false if shrunk to invisible
      */
     public void setZeroSizedVisible(boolean zeroVisible) {
-        getState().zeroVisible = zeroVisible;
+        if (getState(false).zeroVisible != zeroVisible) {
+            getState().zeroVisible = zeroVisible;
+        }
     }
 
     /**
@@ -349,7 +1153,7 @@ public class DistributionBar extends AbstractComponent {
      * @return true if zero sized are shown, false if shrunk to invisible
      */
     public boolean isZeroSizedVisible() {
-        return getState().zeroVisible;
+        return getState(false).zeroVisible;
     }
 
     /**
@@ -357,7 +1161,9 @@ public class DistributionBar extends AbstractComponent {
      * @param pixels With in pixels.
      */
     public void setMinPartWidth(double pixels) {
-        getState().minWidth = pixels;
+        if (getState(false).minWidth != pixels) {
+            getState().minWidth = pixels;
+        }
     }
 
     /**
@@ -365,6 +1171,135 @@ public class DistributionBar extends AbstractComponent {
      * @return Minimum with of part in pixels.
      */
     public double getMinPartWidth() {
-        return getState().minWidth;
+        return getState(false).minWidth;
+    }
+
+    /**
+     * Define if parts are laid out with CSS flexbox. In flex layout widths of
+     * parts are not calculated on client side, so resizing of bar does not
+     * require any JavaScript. Minimum part width is not reduced when there
+     * isn't enough space.
+     * @param flexLayout true to use flex layout, false to calculate widths in pixels
+     */
+    public void setFlexLayout(boolean flexLayout) {
+        if (getState(false).flexLayout != flexLayout) {
+            getState().flexLayout = flexLayout;
+        }
+    }
+
+    /**
+     * See if parts are laid out with CSS flexbox
+     * @return true if flex layout is used
+     */
+    public boolean isFlexLayout() {
+        return getState(false).flexLayout;
+    }
+
+    /**
+     * Define duration of size animation. When duration is defined, client
+     * interpolates widths and values of parts to new sizes over the duration,
+     * so sizes can be updated less often and still look continuous. Captions
+     * given with sizes are changed immediately.
+     * @param duration Duration in milliseconds, zero to apply sizes immediately
+     *                 (with CSS transitions of theme)
+     */
+    public void setAnimationDuration(int duration) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("Animation duration can not be negative");
+        }
+        if (getState(false).animationDuration != duration) {
+            getState().animationDuration = duration;
+        }
+    }
+
+    /**
+     * Get duration of size animation
+     * @return Duration in milliseconds, zero if sizes are applied immediately
+     */
+    public int getAnimationDuration() {
+        return getState(false).animationDuration;
+    }
+
+    /**
+     * Define if updates are held back while bar is not visible to user. When
+     * enabled, client reports when bar is outside of viewport or browser tab
+     * is hidden. Changes of parts done while bar is hidden are not sent to
+     * client, and only the latest parts are sent when bar becomes visible
+     * again. Client also does not render hidden bars.
+     * @param visibilityAware true to hold back updates of hidden bars, false
+     *                        to always send updates (default)
+     */
+    public void setVisibilityAware(boolean visibilityAware) {
+        if (getState(false).reportVisibility != visibilityAware) {
+            getState().reportVisibility = visibilityAware;
+        }
+        if (!visibilityAware) {
+            setClientVisible(true);
+        }
+    }
+
+    /**
+     * See if updates are held back while bar is not visible to user
+     * @return true if updates of hidden bars are held back
+     */
+    public boolean isVisibilityAware() {
+        return getState(false).reportVisibility;
+    }
+
+    /**
+     * See if bar is visible to user, as last reported by client
+     * @return false if client has reported bar hidden, true otherwise
+     */
+    public boolean isClientVisible() {
+        return clientVisible;
+    }
+
+    /**
+     * Define width under which consecutive parts are aggregated to one part.
+     * Aggregated part has tooltip listing the parts aggregated, and clicks of
+     * it are reported with range of parts. Use this with bars that have more
+     * parts than can be shown.
+     * @param pixels Width in pixels, zero to disable aggregation
+     */
+    public void setAggregationThreshold(double pixels) {
+        if (pixels < 0.0) {
+            throw new IllegalArgumentException("Threshold must be zero or larger (" + pixels + ")");
+        }
+        if (getState(false).aggregateWidth != pixels) {
+            getState().aggregateWidth = pixels;
+        }
+    }
+
+    /**
+     * Get width under which consecutive parts are aggregated to one part.
+     * @return Width in pixels, zero if aggregation is disabled
+     */
+    public double getAggregationThreshold() {
+        return getState(false).aggregateWidth;
+    }
+
+    /**
+     * Define how bar is rendered on client side. CANVAS draws all parts to
+     * single canvas, which is faster with many parts or frequent updates, but
+     * only colors of parts are taken from theme. SVG renders all parts inside
+     * single SVG element resized by browser, also with only colors taken from
+     * theme. Flex layout is not used with canvas or SVG.
+     * @param mode Render mode
+     */
+    public void setRenderMode(RenderMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Render mode can not be null");
+        }
+        if (getState(false).renderMode != mode) {
+            getState().renderMode = mode;
+        }
+    }
+
+    /**
+     * Get how bar is rendered on client side
+     * @return Render mode
+     */
+    public RenderMode getRenderMode() {
+        return getState(false).renderMode;
     }
 }
@@ -11,11 +11,27 @@ public class DistributionBarClickEvent {
 
     private final int partIndex;
 
+    private final int lastPartIndex;
+
+    private final String partKey;
+
     private final MouseEventDetails details;
 
     public DistributionBarClickEvent(DistributionBar distributionBar, int clickIndex, MouseEventDetails details) {
+        this(distributionBar, clickIndex, null, details);
+    }
+
+    public DistributionBarClickEvent(DistributionBar distributionBar, int clickIndex, String clickKey,
+            MouseEventDetails details) {
+        this(distributionBar, clickIndex, clickIndex, clickKey, details);
+    }
+
+    public DistributionBarClickEvent(DistributionBar distributionBar, int firstIndex, int lastIndex,
+            String clickKey, MouseEventDetails details) {
         this.distributionBar = distributionBar;
-        this.partIndex = clickIndex;
+        this.partIndex = firstIndex;
+        this.lastPartIndex = lastIndex;
+        this.partKey = clickKey;
         this.details = details;
     }
 
@@ -28,13 +44,39 @@ public class DistributionBarClickEvent {
     }
 
     /**
-     * Get index of part clicked
+     * Get index of part clicked. If aggregated part was clicked, this is the
+     * index of first part aggregated.
      * @return Index of part clicked
      */
     public int getPartIndex() {
         return partIndex;
     }
 
+    /**
+     * Get index of last part clicked. If aggregated part was clicked, this is
+     * the index of last part aggregated, otherwise same as getPartIndex.
+     * @return Index of last part clicked
+     */
+    public int getLastPartIndex() {
+        return lastPartIndex;
+    }
+
+    /**
+     * Check if clicked part was aggregated from multiple parts
+     * @return true if multiple parts were clicked
+     */
+    public boolean isPartRange() {
+        return lastPartIndex != partIndex;
+    }
+
+    /**
+     * Get key of part clicked
+     * @return Key of part clicked, null if part does not have key
+     */
+    public String getPartKey() {
+        return partKey;
+    }
+
     /**
      * Cursor X in client's coordinate
      * @return X coordinate, or -1 if undefined
@@ -0,0 +1,176 @@
+package org.vaadin.alump.distributionbar;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.vaadin.alump.distributionbar.gwt.client.shared.DistributionBarState.Part;
+
+/**
+ * Editor given to DistributionBar.update calls. Collects changes to parts and
+ * only applies them to the bar when the update call returns, so that all
+ * changes will be validated once and committed as a single state change.
+ */
+@SuppressWarnings("serial")
+public class DistributionBarEditor implements Serializable {
+
+    private final DistributionBar distributionBar;
+
+    /**
+     * Working copies of modified parts. Index to part map.
+     */
+    private final Map<Integer, Part> changes = new LinkedHashMap<Integer, Part>();
+
+    protected DistributionBarEditor(DistributionBar distributionBar) {
+        this.distributionBar = distributionBar;
+    }
+
+    /**
+     * Get distribution bar edited
+     * @return Distribution bar edited
+     */
+    public DistributionBar getDistributionBar() {
+        return distributionBar;
+    }
+
+    /**
+     * Get working copy of part
+     * @param index Index of part
+     * @return Working copy of part
+     * @throws IndexOutOfBoundsException If invalid index is given
+     */
+    protected Part getWorkingPart(int index) throws IndexOutOfBoundsException {
+        Part part = changes.get(index);
+        if (part == null) {
+            part = new Part(distributionBar.getPart(index));
+            changes.put(index, part);
+        }
+        return part;
+    }
+
+    /**
+     * Get changes collected by this editor
+     * @return Index to modified part map
+     */
+    protected Map<Integer, Part> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Change size of given part
+     *
+     * @param index
+     *            Index of part [0..N]. Only give valid indexes.
+     * @param size
+     *            Size of part (0.0 or larger)
+     * @return Reference to editor to allow call chaining
+     */
+    public DistributionBarEditor setPartSize(int index, double size) {
+        getWorkingPart(index).setSize(size);
+        return this;
+    }
+
+    /**
+     * Change both size and caption of part
+     *
+     * @param index
+     *            Index of part [0..N]. Only give valid indexes.
+     * @param size
+     *            Size of part (0.0 or larger)
+     * @param caption
+     *            Caption of part (null to show value)
+     * @return Reference to editor to allow call chaining
+     */
+    public DistributionBarEditor setPartSize(int index, double size, String caption) {
+        Part part = getWorkingPart(index);
+        part.setSize(size);
+        part.setCaption(caption);
+        return this;
+    }
+
+    /**
+     * Change caption of given part
+     *
+     * @param index
+     *            Index of part [0..N]. Only give valid indexes.
+     * @param caption
+     *            Caption of part (null to show value)
+     * @return Reference to editor to allow call chaining
+     */
+    public DistributionBarEditor setPartCaption(int index, String caption) {
+        getWorkingPart(index).setCaption(caption);
+        return this;
+    }
+
+    /**
+     * Change title of given part
+     *
+     * @param index
+     *            Index of part [0..N]. Only give valid indexes.
+     * @param title
+     *            Title for part
+     * @return Reference to editor to allow call chaining
+     */
+    public DistributionBarEditor setPartTitle(int index, String title) {
+        getWorkingPart(index).setTitle(title);
+        return this;
+    }
+
+    /**
+     * Change tooltip of given part
+     *
+     * @param index
+     *            Index of part [0..N]. Only give valid indexes.
+     * @param tooltip
+     *            Content of tooltip (empty is do not show tooltip). Content is
+     *            given in XHTML format.
+     * @return Reference to editor to allow call chaining
+     */
+    public DistributionBarEditor setPartTooltip(int index, String tooltip) {
+        getWorkingPart(index).setTooltip(tooltip);
+        return this;
+    }
+
+    /**
+     * Change stylename of given part
+     *
+     * @param index
+     *            Index of part [0..N]. Only give valid indexes.
+     * @param styleName
+     *            Style name of part
+     * @return Reference to editor to allow call chaining
+     */
+    public DistributionBarEditor setPartStyleName(int index, String styleName) {
+        getWorkingPart(index).setStyleName(styleName);
+        return this;
+    }
+
+    /**
+     * Change name of given part. Name is used as {name} placeholder value in
+     * caption and tooltip templates.
+     *
+     * @param index
+     *            Index of part [0..N]. Only give valid indexes.
+     * @param name
+     *            Name of part
+     * @return Reference to editor to allow call chaining
+     */
+    public DistributionBarEditor setPartName(int index, String name) {
+        getWorkingPart(index).setName(name);
+        return this;
+    }
+
+    /**
+     * Validate all collected changes
+     * @throws IllegalArgumentException If any of changes is invalid
+     */
+    protected void validate() throws IllegalArgumentException {
+        for (Map.Entry<Integer, Part> entry : changes.entrySet()) {
+            // Written so that NaN is rejected too
+            if (!(entry.getValue().getSize() >= 0.0)) {
+                throw new IllegalArgumentException("Size must be zero or larger (" + entry.getValue().getSize()
+                        + " given to part " + entry.getKey() + ")");
+            }
+        }
+    }
+}
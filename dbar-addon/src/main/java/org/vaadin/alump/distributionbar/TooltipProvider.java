@@ -0,0 +1,21 @@
+package org.vaadin.alump.distributionbar;
+
+import java.io.Serializable;
+
+/**
+ * Interface for providers of lazy loaded tooltips. Provider is only called
+ * when user hovers a part for the first time, or after the tooltip of part
+ * has been refreshed. Size changes do not refresh tooltips, unless
+ * DistributionBar.setRefreshTooltipsOnChange is enabled.
+ */
+public interface TooltipProvider extends Serializable {
+
+    /**
+     * Called when tooltip of part is needed
+     * @param distributionBar Distribution bar hovered
+     * @param partIndex Index of part hovered
+     * @return Content of tooltip in XHTML format. Empty or null to not show tooltip.
+     */
+    String getTooltip(DistributionBar distributionBar, int partIndex);
+
+}
@@ -19,20 +19,19 @@ package org.vaadin.alump.distributionbar.gwt.client;
 
 import java.util.*;
 
-import com.google.gwt.event.shared.HandlerRegistration;
+import org.vaadin.alump.distributionbar.gwt.client.dom.CanvasElementBuilder;
 import org.vaadin.alump.distributionbar.gwt.client.dom.ElementBuilder;
+import org.vaadin.alump.distributionbar.gwt.client.dom.SvgElementBuilder;
 
-import com.google.gwt.core.client.Scheduler;
-import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.core.client.Duration;
 import com.google.gwt.dom.client.Element;
-import com.google.gwt.event.logical.shared.ResizeEvent;
-import com.google.gwt.event.logical.shared.ResizeHandler;
 import com.google.gwt.user.client.DOM;
 import com.google.gwt.user.client.Event;
 import com.google.gwt.user.client.EventListener;
-import com.google.gwt.user.client.Window;
 import com.google.gwt.user.client.ui.Widget;
 import org.vaadin.alump.distributionbar.gwt.client.dom.ToolTipPresenter;
+import org.vaadin.alump.distributionbar.gwt.client.shared.RenderMode;
+import org.vaadin.alump.distributionbar.gwt.client.shared.ValueFormat;
 
 /**
  * GwtDistributionBar is widget for presenting relative sizes of different
@@ -47,14 +46,15 @@ public class GwtDistributionBar extends Widget {
     public static final String CLASSNAME = "alump-dbar";
 
     /**
-     * List of sizes of parts
+     * Class name added when sizes are interpolated by widget, disables CSS
+     * transitions of parts
      */
-    private final List<Double> sizes = new ArrayList<Double>();
+    public static final String ANIMATED_CLASSNAME = CLASSNAME + "-animated";
 
     /**
-     * Index to optional caption map
+     * Sizes and optional captions of parts (null if size is shown)
      */
-    private final Map<Integer,String> captions = new HashMap<Integer,String>();
+    private final PartModel model = new PartModel();
 
     /**
      * Default size of part before it is defined
@@ -70,14 +70,51 @@ public class GwtDistributionBar extends Widget {
      * Instance that will take care of all DOM tree manipulations
      */
     transient private ElementBuilder builder;
+
+    private RenderMode renderMode = RenderMode.DOM;
     
     private boolean eventsConnected = false;
 
-    private HandlerRegistration windowResizeReg;
+    private double minPartWidth = 30.0;
 
-    public final static int DELAYED_UPDATE_MS = 300;
+    /**
+     * Duration of size interpolation in milliseconds, zero if sizes are
+     * applied immediately
+     */
+    private int animationDuration = 0;
 
-    private double minPartWidth = 30.0;
+    /**
+     * Target sizes given after the last updateParts call, null if none
+     */
+    private double[] pendingTargets;
+
+    /**
+     * Sizes shown when the current animation started, null if not animating
+     */
+    private double[] animationFrom;
+
+    /**
+     * Target sizes of the current animation, null if not animating
+     */
+    private double[] animationTo;
+
+    /**
+     * Start time of the current animation, negative until the first frame
+     */
+    private double animationStart = -1.0;
+
+    /**
+     * Observer of visibility, null if visibility is not tracked
+     */
+    private VisibilityObserver visibilityObserver;
+
+    private VisibilityObserver.Listener visibilityListener;
+
+    /**
+     * If true parts have changed while bar was hidden, and have to be
+     * rendered when bar becomes visible
+     */
+    private boolean renderHeldBack = false;
 
     private ToolTipPresenter.TooltipClassNameProvider tooltipClassNameProvider;
     
@@ -109,21 +146,48 @@ public class GwtDistributionBar extends Widget {
     public void setTooltipClassNameProvider(ToolTipPresenter.TooltipClassNameProvider provider) {
         tooltipClassNameProvider = provider;
     }
+
+    /**
+     * Define loader used for tooltips of parts without tooltip content. Call
+     * before setting tooltips of parts.
+     *
+     * @param loader
+     *            Loader of lazy loaded tooltips, null to disable
+     */
+    public void setTooltipLoader(ToolTipPresenter.TooltipLoader loader) {
+        getBuilder().setTooltipLoader(loader);
+    }
+
+    /**
+     * Give content of lazy loaded tooltip to widget
+     *
+     * @param index
+     *            Index of part
+     * @param content
+     *            Tooltip content in XHTML
+     */
+    public void tooltipLoaded(int index, String content) {
+        getBuilder().tooltipLoaded(index, content);
+    }
     
     public void onAttach() {
     	super.onAttach();
+        if (visibilityObserver != null) {
+            visibilityObserver.connect();
+        }
     	updateParts();
     	
     	connectClickHandlingIfNeeded();
-
-        windowResizeReg = Window.addResizeHandler(resizeHandler);
     }
 
     public void onDetach() {
-        if(windowResizeReg != null) {
-            windowResizeReg.removeHandler();
-            windowResizeReg = null;
+        if (visibilityObserver != null) {
+            visibilityObserver.disconnect();
         }
+        RenderScheduler.get().cancel(renderable);
+        finishAnimation();
+        renderHeldBack = false;
+        getBuilder().releaseToolTips();
         super.onDetach();
     }
     
@@ -140,17 +204,13 @@ public class GwtDistributionBar extends Widget {
 		@Override
 		public void onBrowserEvent(Event event) {
 			if (event.getTypeInt() == Event.ONCLICK && !clickListeners.isEmpty()) {
-				Element target = Element.as(event.getEventTarget());
-				for (int i = 0; i < getElement().getChildCount(); ++i) {
-					Element child = Element.as(getElement().getChild(i));
-					if (child.isOrHasChild(target)) {
-						for (ClickListener listener : clickListeners) {
-							listener.onItemClicked(i, event);
-						}
-						event.stopPropagation();
-						event.preventDefault();
-						return;
+				int index = getBuilder().findPartIndex(event);
+				if (index >= 0) {
+					for (ClickListener listener : clickListeners) {
+						listener.onItemClicked(index, event);
 					}
+					event.stopPropagation();
+					event.preventDefault();
 				}
 			}
 		}
@@ -159,7 +219,7 @@ public class GwtDistributionBar extends Widget {
 
     private ElementBuilder getBuilder() {
         if (builder == null) {
-            builder = new ElementBuilder();
+            builder = createBuilder(renderMode);
             builder.setParent(this);
             builder.initRootElement();
             builder.addUninitializedWarning();
@@ -173,17 +233,56 @@ public class GwtDistributionBar extends Widget {
     }
 
     /**
-     * Handled for resize events of window
+     * Create builder for render mode
+     *
+     * @param mode
+     *            Render mode
+     * @return New builder, setParent is called for it later
      */
-    private final ResizeHandler resizeHandler = new ResizeHandler() {
+    protected ElementBuilder createBuilder(RenderMode mode) {
+        if (mode == RenderMode.CANVAS) {
+            return new CanvasElementBuilder();
+        } else if (mode == RenderMode.SVG) {
+            return new SvgElementBuilder();
+        } else {
+            return new ElementBuilder();
+        }
+    }
 
-        public void onResize(final ResizeEvent event) {
-            updateParts();
+    /**
+     * Change how bar is rendered. If mode changes, all parts are removed and
+     * have to be defined again.
+     *
+     * @param mode
+     *            Render mode
+     * @return true if mode changed and parts were removed
+     */
+    public boolean setRenderMode(RenderMode mode) {
+        if (mode == renderMode) {
+            return false;
         }
-    };
+
+        renderMode = mode;
+        RenderScheduler.get().cancel(renderable);
+        cancelAnimation();
+        model.clear();
+        if (builder != null) {
+            builder.dispose();
+            builder = null;
+        }
+        getBuilder();
+        return true;
+    }
+
+    public RenderMode getRenderMode() {
+        return renderMode;
+    }
 
     /***
-     * Change the number of parts in distributionbar.
+     * Change the number of parts in distributionbar. Existing parts are kept:
+     * new parts are added to the end, and parts are removed from the end.
+     * As class names of parts depend on the number of parts, call
+     * setPartStyleName for the parts after this.
      * 
      * @param parts
      *            Number of parts (min 1).
@@ -194,38 +293,108 @@ public class GwtDistributionBar extends Widget {
             throw new IllegalArgumentException("Bar needs to have at least one part");
         }
 
-        if (parts == sizes.size()) {
+        if (parts == model.size()) {
             return;
         }
 
-        sizes.clear();
-        captions.clear();
-        getBuilder().initRootElement();
+        finishAnimation();
 
-        for (int i = 0; i < parts; ++i) {
+        if (model.isEmpty()) {
+            // Removes uninitialized warning
+            getBuilder().initRootElement();
+        }
 
-            sizes.add(DEFAULT_VALUE);
+        while (model.size() > parts) {
+            model.remove(model.size() - 1);
+            getBuilder().removeLastPartElement();
+        }
 
-            builder.addPartElement(i, parts, DEFAULT_VALUE, DEFAULT_TITLE);
+        while (model.size() < parts) {
+            int index = model.size();
+            model.add(DEFAULT_VALUE, null);
+            getBuilder().addPartElement(index, parts, DEFAULT_VALUE, DEFAULT_TITLE);
         }
     }
 
+    /**
+     * Insert new part to given index. Existing parts are kept as they are. As
+     * class names of parts depend on the number of parts, call
+     * setPartStyleName for the parts after this.
+     *
+     * @param index
+     *            Index of new part [0..N]
+     */
+    public void insertPart(int index) {
+        finishAnimation();
+
+        if (model.isEmpty()) {
+            // Removes uninitialized warning
+            getBuilder().initRootElement();
+        }
+
+        model.insert(index, DEFAULT_VALUE, null);
+        getBuilder().insertPartElement(index, model.size(), DEFAULT_VALUE, DEFAULT_TITLE);
+    }
+
+    /**
+     * Remove part with given index. Other parts are kept as they are.
+     *
+     * @param index
+     *            Index of part removed
+     */
+    public void removePart(int index) {
+        if (model.size() <= 1) {
+            throw new IllegalArgumentException("Bar needs to have at least one part");
+        }
+
+        finishAnimation();
+        model.remove(index);
+        getBuilder().removePartElement(index);
+    }
+
+    /**
+     * Move part to new index. Element of part is moved with its tooltip and
+     * other content.
+     *
+     * @param from
+     *            Current index of part
+     * @param to
+     *            New index of part
+     */
+    public void movePart(int from, int to) {
+        if (from == to) {
+            return;
+        }
+
+        finishAnimation();
+        model.move(from, to);
+        getBuilder().movePartElement(from, to);
+    }
+
+    /**
+     * Get sizes, captions and tooltips of parts. Only to be modified through
+     * the methods of widget.
+     *
+     * @return Model of parts
+     */
+    public PartModel getPartModel() {
+        return model;
+    }
+
     /***
      * Sum of sizes of parts
      * 
      * @return Sum of all sizes. Can be zero!
      */
     public double totalSize() {
-        double totalSize = 0;
-        for (Double value : sizes) {
-            totalSize += value;
-        }
-        return totalSize;
+        return model.getTotal();
     }
 
     /**
      * Change size of part. Call updateParts after using this function to update
-     * the DOM structure.
+     * the DOM structure. If animation duration is defined, size is
+     * interpolated to the new value after updateParts is called. Captions are
+     * changed immediately.
      * 
      * @param index
      *            Index of part [0...N]
@@ -235,12 +404,148 @@ public class GwtDistributionBar extends Widget {
      *            Caption shown in element, if not null
      */
     public void setPartSize(int index, double size, String caption) {
-        sizes.set(index, size);
-        if(caption != null) {
-            captions.put(index, caption);
+        if (animationDuration <= 0 || !isAttached() || !isVisibleOnScreen()) {
+            finishAnimation();
+            model.set(index, size, caption);
+            return;
+        }
+
+        if (size == getTargetSize(index)) {
+            // Connector sets sizes of all parts on every change, e.g. when only caption or style changed
+            model.set(index, model.getSize(index), caption);
+            return;
+        }
+
+        if (pendingTargets == null) {
+            pendingTargets = animationTo != null ? animationTo.clone() : getShownSizes();
+        }
+        pendingTargets[index] = size;
+        model.set(index, model.getSize(index), caption);
+    }
+
+    /**
+     * Define duration of size interpolation. When duration is defined, widths
+     * and values shown in parts are interpolated to new sizes in animation
+     * frames, instead of using CSS transitions.
+     *
+     * @param duration
+     *            Duration in milliseconds, zero to apply sizes immediately
+     */
+    public void setAnimationDuration(int duration) {
+        if (duration == animationDuration) {
+            return;
+        }
+
+        if (duration <= 0) {
+            finishAnimation();
+            removeStyleName(ANIMATED_CLASSNAME);
         } else {
-            captions.remove(index);
+            addStyleName(ANIMATED_CLASSNAME);
         }
+        animationDuration = Math.max(0, duration);
+    }
+
+    public int getAnimationDuration() {
+        return animationDuration;
+    }
+
+    /**
+     * Check if sizes are currently interpolated
+     *
+     * @return true if animation is running or waiting for updateParts
+     */
+    public boolean isAnimating() {
+        return animationTo != null || pendingTargets != null;
+    }
+
+    /**
+     * Get size part is heading to: pending or current animation target, or
+     * size shown if part is not animated
+     */
+    private double getTargetSize(int index) {
+        if (pendingTargets != null && index < pendingTargets.length) {
+            return pendingTargets[index];
+        } else if (animationTo != null && index < animationTo.length) {
+            return animationTo[index];
+        }
+        return model.getSize(index);
+    }
+
+    private double[] getShownSizes() {
+        double[] sizes = new double[model.size()];
+        for (int i = 0; i < sizes.length; ++i) {
+            sizes[i] = model.getSize(i);
+        }
+        return sizes;
+    }
+
+    /**
+     * Start animation to pending target sizes, from sizes currently shown
+     */
+    private void startAnimation() {
+        if (pendingTargets == null) {
+            return;
+        }
+
+        animationFrom = getShownSizes();
+        animationTo = pendingTargets;
+        animationStart = -1.0;
+        pendingTargets = null;
+    }
+
+    /**
+     * Advance current animation to given time
+     *
+     * @param now
+     *            Current time in milliseconds
+     * @return true if animation continues after this step
+     */
+    private boolean stepAnimation(double now) {
+        if (animationTo == null) {
+            return false;
+        }
+
+        if (animationStart < 0.0) {
+            animationStart = now;
+        }
+        double progress = Math.min(1.0, (now - animationStart) / animationDuration);
+        // Same easing as with GWT animations
+        double eased = (1.0 + Math.cos(Math.PI + progress * Math.PI)) / 2.0;
+
+        int parts = Math.min(model.size(), animationTo.length);
+        for (int i = 0; i < parts; ++i) {
+            double size = progress >= 1.0 ? animationTo[i]
+                    : animationFrom[i] + (animationTo[i] - animationFrom[i]) * eased;
+            model.set(i, size, model.getCaption(i));
+        }
+
+        if (progress >= 1.0) {
+            cancelAnimation();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Jump to target sizes of current and pending animations. Called before
+     * parts are added, removed or moved, as those change indexes of sizes.
+     */
+    private void finishAnimation() {
+        double[] targets = pendingTargets != null ? pendingTargets : animationTo;
+        if (targets != null) {
+            int parts = Math.min(model.size(), targets.length);
+            for (int i = 0; i < parts; ++i) {
+                model.set(i, targets[i], model.getCaption(i));
+            }
+        }
+        cancelAnimation();
+    }
+
+    private void cancelAnimation() {
+        pendingTargets = null;
+        animationFrom = null;
+        animationTo = null;
+        animationStart = -1.0;
     }
 
     /**
@@ -265,51 +570,124 @@ public class GwtDistributionBar extends Widget {
      *            Tooltip content in XHTML
      */
     public void setPartTooltip(int index, String content) {
-        getBuilder().changePartTooltip(index, content);
+        model.setTooltip(index, content);
+        getBuilder().partToolTipChanged(index);
     }
 
     public void setPartStyleName(int index, int styleIndex, String styleName) {
-        getBuilder().changePartStyleName(index, styleIndex, sizes.size(), styleName);
+        getBuilder().changePartStyleName(index, styleIndex, model.size(), styleName);
     }
 
     /**
-     * Update part widths by updating the DOM three
+     * Update part widths by updating the DOM three. Update is done in the next
+     * animation frame, and multiple calls before it will cause only one
+     * update.
      */
     public void updateParts() {
-        Scheduler.get().scheduleDeferred(new ScheduledCommand() {
-            @Override
-            public void execute() {
-                if(GwtDistributionBar.this.isAttached()) {
-                    updateParts(true);
-                }
+        if (!isVisibleOnScreen()) {
+            // Rendered when bar becomes visible
+            finishAnimation();
+            renderHeldBack = true;
+            return;
+        }
+
+        startAnimation();
+        RenderScheduler.get().schedule(renderable);
+    }
+
+    /**
+     * Define if visibility of bar is tracked. When tracked, parts are not
+     * rendered while bar is outside of viewport or document is hidden, and
+     * changes are rendered when bar becomes visible again.
+     *
+     * @param tracking
+     *            true to track visibility
+     */
+    public void setVisibilityTracking(boolean tracking) {
+        if (tracking == (visibilityObserver != null)) {
+            return;
+        }
+
+        if (tracking) {
+            visibilityObserver = new VisibilityObserver(getElement(), observerListener);
+            if (isAttached()) {
+                visibilityObserver.connect();
+            }
+        } else {
+            visibilityObserver.disconnect();
+            visibilityObserver = null;
+            if (renderHeldBack) {
+                renderHeldBack = false;
+                updateParts();
             }
-        });
+        }
     }
 
     /**
-     * Sync update with optional extra delayed async update
-     * @param runDelayed if true extra update is run with some delay
+     * Define listener called when tracked visibility of bar changes
+     *
+     * @param listener
+     *            Listener, null to remove
      */
-    public void updateParts(boolean runDelayed) {
+    public void setVisibilityListener(VisibilityObserver.Listener listener) {
+        visibilityListener = listener;
+    }
 
-        callBuilderToUpdateParts();
+    /**
+     * Check if bar is visible to user. Always true if visibility is not
+     * tracked.
+     *
+     * @return true if bar is visible
+     */
+    public boolean isVisibleOnScreen() {
+        return visibilityObserver == null || visibilityObserver.isVisible();
+    }
 
-        if(runDelayed) {
-            Scheduler.get().scheduleFixedDelay(new Scheduler.RepeatingCommand() {
-                @Override
-                public boolean execute() {
-                    if(GwtDistributionBar.this.isAttached()) {
-                        callBuilderToUpdateParts();
-                    }
-                    return false;
+    private final VisibilityObserver.Listener observerListener = new VisibilityObserver.Listener() {
+        @Override
+        public void onVisibilityChanged(boolean visible) {
+            if (visible) {
+                if (renderHeldBack) {
+                    renderHeldBack = false;
+                    updateParts();
                 }
-            }, DELAYED_UPDATE_MS);
+            } else if (RenderScheduler.get().isScheduled(renderable) || isAnimating()) {
+                RenderScheduler.get().cancel(renderable);
+                finishAnimation();
+                renderHeldBack = true;
+            }
+
+            if (visibilityListener != null) {
+                visibilityListener.onVisibilityChanged(visible);
+            }
         }
-    }
+    };
 
-    private void callBuilderToUpdateParts() {
-        getBuilder().updateParts(sizes, captions, minPartWidth);
-    }
+    private final RenderScheduler.Renderable renderable = new RenderScheduler.Renderable() {
+
+        /**
+         * Width of bar read in measure phase
+         */
+        private int measuredWidth;
+
+        @Override
+        public void measure() {
+            if(isAttached()) {
+                measuredWidth = getBuilder().measureFullWidth();
+            }
+        }
+
+        @Override
+        public void render() {
+            if(isAttached()) {
+                boolean animating = stepAnimation(Duration.currentTimeMillis());
+                getBuilder().updateParts(model, minPartWidth, measuredWidth);
+                if(animating) {
+                    RenderScheduler.get().schedule(this);
+                }
+            }
+        }
+    };
 
     /**
      * This to allow builders to change the structure of widget. Only to be
@@ -339,6 +717,39 @@ public class GwtDistributionBar extends Widget {
     	clickListeners.remove(listener);
     }
 
+    /**
+     * Define how sizes are shown in parts without caption. Call updateParts
+     * after using this function to update the DOM structure.
+     *
+     * @param format
+     *            Format of values
+     * @param pattern
+     *            Number pattern, null to use default of format
+     */
+    public void setValueFormat(ValueFormat format, String pattern) {
+        getBuilder().setValueFormat(format, pattern);
+    }
+
+    /**
+     * Define if parts are laid out with CSS flexbox. Call updateParts after
+     * using this function to update the DOM structure.
+     *
+     * @param flexLayout
+     *            true to use flex layout, false to use pixel widths
+     */
+    public void setFlexLayout(boolean flexLayout) {
+        getBuilder().setFlexLayout(flexLayout);
+    }
+
+    /**
+     * Check if browser resizes parts without calling updateParts
+     *
+     * @return true if resizing of bar does not require updateParts
+     */
+    public boolean isResizedByBrowser() {
+        return getBuilder().isResizedByBrowser();
+    }
+
     public void setMinPartWidth(double minWidth) {
         minPartWidth = minWidth;
     }
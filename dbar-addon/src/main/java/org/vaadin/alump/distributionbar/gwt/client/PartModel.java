@@ -0,0 +1,256 @@
+package org.vaadin.alump.distributionbar.gwt.client;
+
+/**
+ * Sizes, captions and tooltips of parts of GwtDistributionBar. Values are
+ * stored in primitive arrays, and the sum of sizes is maintained when sizes
+ * change, so rendering does not need to allocate or sum anything. To keep
+ * rounding errors from accumulating, the sum is calculated again from sizes
+ * after parts are added or removed, and after as many size changes as there
+ * are parts. This is done when the sum is read, so cost of changes stays
+ * constant.
+ */
+public class PartModel {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private double[] sizes = new double[INITIAL_CAPACITY];
+
+    private String[] captions = new String[INITIAL_CAPACITY];
+
+    private String[] tooltips = new String[INITIAL_CAPACITY];
+
+    private int count = 0;
+
+    private double total = 0.0;
+
+    /**
+     * Number of parts with size other than zero. Used to return exact zero
+     * total, even if there are rounding errors in maintained total.
+     */
+    private int nonZeroCount = 0;
+
+    /**
+     * Number of size changes applied to total after it was last calculated
+     * from sizes
+     */
+    private int changesSinceSum = 0;
+
+    /**
+     * If true total is calculated from sizes when it is read next time
+     */
+    private boolean totalStale = false;
+
+    /**
+     * Get number of parts
+     * @return Number of parts
+     */
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Get size of part
+     * @param index Index of part [0..N]
+     * @return Size of part
+     */
+    public double getSize(int index) {
+        checkIndex(index);
+        return sizes[index];
+    }
+
+    /**
+     * Get caption of part
+     * @param index Index of part [0..N]
+     * @return Caption of part, null if size is shown
+     */
+    public String getCaption(int index) {
+        checkIndex(index);
+        return captions[index];
+    }
+
+    /**
+     * Get tooltip of part
+     * @param index Index of part [0..N]
+     * @return Tooltip content in XHTML, null if not defined
+     */
+    public String getTooltip(int index) {
+        checkIndex(index);
+        return tooltips[index];
+    }
+
+    /**
+     * Change tooltip of part
+     * @param index Index of part [0..N]
+     * @param tooltip Tooltip content in XHTML, null if not defined
+     */
+    public void setTooltip(int index, String tooltip) {
+        checkIndex(index);
+        tooltips[index] = tooltip;
+    }
+
+    /**
+     * Sum of sizes of parts
+     * @return Sum of all sizes. Can be zero!
+     */
+    public double getTotal() {
+        if (totalStale) {
+            recomputeTotal();
+        }
+        return nonZeroCount == 0 ? 0.0 : total;
+    }
+
+    /**
+     * Change size and caption of part
+     * @param index Index of part [0..N]
+     * @param size New size
+     * @param caption Caption shown in part, null if size is shown
+     */
+    public void set(int index, double size, String caption) {
+        checkIndex(index);
+        if (!totalStale) {
+            removeFromTotal(sizes[index]);
+            addToTotal(size);
+            totalStale = ++changesSinceSum >= count;
+        }
+        sizes[index] = size;
+        captions[index] = caption;
+    }
+
+    /**
+     * Add part to given index
+     * @param index Index of new part [0..N]
+     * @param size Size of new part
+     * @param caption Caption of new part, null if size is shown
+     */
+    public void insert(int index, double size, String caption) {
+        if (index < 0 || index > count) {
+            throw new IndexOutOfBoundsException("Invalid index " + index);
+        }
+
+        ensureCapacity(count + 1);
+        System.arraycopy(sizes, index, sizes, index + 1, count - index);
+        System.arraycopy(captions, index, captions, index + 1, count - index);
+        System.arraycopy(tooltips, index, tooltips, index + 1, count - index);
+        sizes[index] = size;
+        captions[index] = caption;
+        tooltips[index] = null;
+        ++count;
+        totalStale = true;
+    }
+
+    /**
+     * Add part to the end
+     * @param size Size of new part
+     * @param caption Caption of new part, null if size is shown
+     */
+    public void add(double size, String caption) {
+        insert(count, size, caption);
+    }
+
+    /**
+     * Remove part
+     * @param index Index of part removed
+     */
+    public void remove(int index) {
+        checkIndex(index);
+        System.arraycopy(sizes, index + 1, sizes, index, count - index - 1);
+        System.arraycopy(captions, index + 1, captions, index, count - index - 1);
+        System.arraycopy(tooltips, index + 1, tooltips, index, count - index - 1);
+        --count;
+        captions[count] = null;
+        tooltips[count] = null;
+        totalStale = true;
+    }
+
+    /**
+     * Remove all parts
+     */
+    public void clear() {
+        for (int i = 0; i < count; ++i) {
+            captions[i] = null;
+            tooltips[i] = null;
+        }
+        count = 0;
+        total = 0.0;
+        nonZeroCount = 0;
+        changesSinceSum = 0;
+        totalStale = false;
+    }
+
+    /**
+     * Move part to new index
+     * @param from Current index of part
+     * @param to New index of part
+     */
+    public void move(int from, int to) {
+        checkIndex(from);
+        checkIndex(to);
+
+        double size = sizes[from];
+        String caption = captions[from];
+        String tooltip = tooltips[from];
+        if (from < to) {
+            System.arraycopy(sizes, from + 1, sizes, from, to - from);
+            System.arraycopy(captions, from + 1, captions, from, to - from);
+            System.arraycopy(tooltips, from + 1, tooltips, from, to - from);
+        } else {
+            System.arraycopy(sizes, to, sizes, to + 1, from - to);
+            System.arraycopy(captions, to, captions, to + 1, from - to);
+            System.arraycopy(tooltips, to, tooltips, to + 1, from - to);
+        }
+        sizes[to] = size;
+        captions[to] = caption;
+        tooltips[to] = tooltip;
+    }
+
+    private void recomputeTotal() {
+        total = 0.0;
+        nonZeroCount = 0;
+        for (int i = 0; i < count; ++i) {
+            addToTotal(sizes[i]);
+        }
+        changesSinceSum = 0;
+        totalStale = false;
+    }
+
+    private void addToTotal(double size) {
+        total += size;
+        if (size != 0.0) {
+            ++nonZeroCount;
+        }
+    }
+
+    private void removeFromTotal(double size) {
+        total -= size;
+        if (size != 0.0) {
+            --nonZeroCount;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= sizes.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, sizes.length * 2);
+        double[] newSizes = new double[newCapacity];
+        String[] newCaptions = new String[newCapacity];
+        String[] newTooltips = new String[newCapacity];
+        System.arraycopy(sizes, 0, newSizes, 0, count);
+        System.arraycopy(captions, 0, newCaptions, 0, count);
+        System.arraycopy(tooltips, 0, newTooltips, 0, count);
+        sizes = newSizes;
+        captions = newCaptions;
+        tooltips = newTooltips;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Invalid index " + index);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.vaadin.alump.distributionbar.gwt.client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.gwt.animation.client.AnimationScheduler;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationCallback;
+
+/**
+ * Render scheduler shared by all distribution bars of page. Renders requested
+ * during the same frame are coalesced, so each bar is rendered at most once
+ * per animation frame. Rendering is done in two phases: first all items read
+ * what they need from DOM, and only then all items write their changes. This
+ * way layout is calculated only once per frame, instead of once per item.
+ */
+public class RenderScheduler {
+
+    /**
+     * Interface for items rendered by scheduler
+     */
+    public interface Renderable {
+        /**
+         * Called before render. Only read DOM (sizes, positions) here, do not
+         * modify it.
+         */
+        void measure();
+
+        /**
+         * Called when it is time to render, after all items have been
+         * measured. Only write to DOM here, do not read sizes or positions.
+         */
+        void render();
+    }
+
+    private static RenderScheduler instance;
+
+    private final Set<Renderable> dirty = new LinkedHashSet<Renderable>();
+
+    private boolean frameRequested = false;
+
+    private final AnimationCallback frameCallback = new AnimationCallback() {
+        @Override
+        public void execute(double timestamp) {
+            frameRequested = false;
+            renderDirty();
+        }
+    };
+
+    protected RenderScheduler() {
+
+    }
+
+    /**
+     * Get scheduler shared by all distribution bars
+     * @return Shared scheduler
+     */
+    public static RenderScheduler get() {
+        if (instance == null) {
+            instance = new RenderScheduler();
+        }
+        return instance;
+    }
+
+    /**
+     * Mark item dirty, so it will be rendered in next animation frame. Calling
+     * this multiple times before the frame will only cause one render.
+     * @param renderable Item rendered
+     */
+    public void schedule(Renderable renderable) {
+        dirty.add(renderable);
+        if (!frameRequested) {
+            frameRequested = true;
+            AnimationScheduler.get().requestAnimationFrame(frameCallback);
+        }
+    }
+
+    /**
+     * Remove item from items waiting to be rendered
+     * @param renderable Item removed
+     */
+    public void cancel(Renderable renderable) {
+        dirty.remove(renderable);
+    }
+
+    /**
+     * Check if item is waiting to be rendered
+     * @param renderable Item checked
+     * @return true if item will be rendered in next animation frame
+     */
+    public boolean isScheduled(Renderable renderable) {
+        return dirty.contains(renderable);
+    }
+
+    protected void renderDirty() {
+        List<Renderable> rendered = new ArrayList<Renderable>(dirty);
+        dirty.clear();
+        for (Renderable renderable : rendered) {
+            renderable.measure();
+        }
+        for (Renderable renderable : rendered) {
+            renderable.render();
+        }
+    }
+}
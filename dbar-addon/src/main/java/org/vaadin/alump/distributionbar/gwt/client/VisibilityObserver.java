@@ -0,0 +1,142 @@
+package org.vaadin.alump.distributionbar.gwt.client;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.dom.client.Element;
+
+/**
+ * Tracks if element is visible to user. Element is visible when it intersects
+ * the viewport (IntersectionObserver) and the document is not hidden (Page
+ * Visibility API). Browsers without IntersectionObserver only track the
+ * visibility of document.
+ */
+public class VisibilityObserver {
+
+    /**
+     * Interface for listeners of visibility changes
+     */
+    public interface Listener {
+        /**
+         * Called when element becomes visible or hidden
+         * @param visible true if element is now visible
+         */
+        void onVisibilityChanged(boolean visible);
+    }
+
+    private final Element element;
+
+    private final Listener listener;
+
+    private boolean intersecting = true;
+
+    private boolean visible = true;
+
+    private JavaScriptObject intersectionObserver;
+
+    private JavaScriptObject documentHandler;
+
+    /**
+     * Constructor
+     *
+     * @param element
+     *            Element observed
+     * @param listener
+     *            Listener called when visibility changes
+     */
+    public VisibilityObserver(Element element, Listener listener) {
+        this.element = element;
+        this.listener = listener;
+    }
+
+    /**
+     * Start observing. Call when element is attached to document.
+     */
+    public void connect() {
+        if (documentHandler != null) {
+            return;
+        }
+
+        intersecting = true;
+        intersectionObserver = observeIntersection(element);
+        documentHandler = observeDocument();
+        update();
+    }
+
+    /**
+     * Stop observing. Call when element is detached from document. Element is
+     * considered visible after this, and listener is called if it was hidden.
+     */
+    public void disconnect() {
+        if (documentHandler == null) {
+            return;
+        }
+
+        disconnect(intersectionObserver, documentHandler);
+        intersectionObserver = null;
+        documentHandler = null;
+        intersecting = true;
+        if (!visible) {
+            visible = true;
+            listener.onVisibilityChanged(true);
+        }
+    }
+
+    /**
+     * Check if element is visible, as last observed
+     *
+     * @return true if element is visible
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    private void intersectionChanged(boolean intersecting) {
+        this.intersecting = intersecting;
+        update();
+    }
+
+    private void update() {
+        boolean newVisible = intersecting && !isDocumentHidden();
+        if (newVisible != visible) {
+            visible = newVisible;
+            listener.onVisibilityChanged(visible);
+        }
+    }
+
+    private native JavaScriptObject observeIntersection(Element element)
+    /*-{
+        if (!$wnd.IntersectionObserver) {
+            return null;
+        }
+        var self = this;
+        var observer = new $wnd.IntersectionObserver($entry(function(entries) {
+            var entry = entries[entries.length - 1];
+            self.@org.vaadin.alump.distributionbar.gwt.client.VisibilityObserver::intersectionChanged(Z)(
+                entry.isIntersecting || entry.intersectionRatio > 0);
+        }));
+        observer.observe(element);
+        return observer;
+    }-*/;
+
+    private native JavaScriptObject observeDocument()
+    /*-{
+        var self = this;
+        var handler = $entry(function() {
+            self.@org.vaadin.alump.distributionbar.gwt.client.VisibilityObserver::update()();
+        });
+        $doc.addEventListener("visibilitychange", handler, false);
+        return handler;
+    }-*/;
+
+    private static native void disconnect(JavaScriptObject observer, JavaScriptObject handler)
+    /*-{
+        if (observer) {
+            observer.disconnect();
+        }
+        $doc.removeEventListener("visibilitychange", handler, false);
+    }-*/;
+
+    private static native boolean isDocumentHidden()
+    /*-{
+        return !!$doc.hidden;
+    }-*/;
+}
@@ -1,24 +1,33 @@
 package org.vaadin.alump.distributionbar.gwt.client.connect;
 
-import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.safehtml.shared.SafeHtmlUtils;
 import com.google.gwt.user.client.Event;
 import com.vaadin.client.MouseEventDetailsBuilder;
 import com.vaadin.shared.MouseEventDetails;
+import org.vaadin.alump.distributionbar.gwt.client.dom.ValueFormatter;
 import org.vaadin.alump.distributionbar.gwt.client.dom.ToolTipPresenter.TooltipClassNameProvider;
+import org.vaadin.alump.distributionbar.gwt.client.dom.ToolTipPresenter.TooltipLoader;
+import org.vaadin.alump.distributionbar.gwt.client.shared.DistributionBarClientRpc;
 import org.vaadin.alump.distributionbar.gwt.client.shared.DistributionBarServerRpc;
 import org.vaadin.alump.distributionbar.gwt.client.shared.DistributionBarState;
 import org.vaadin.alump.distributionbar.gwt.client.GwtDistributionBar;
+import org.vaadin.alump.distributionbar.gwt.client.VisibilityObserver;
 import org.vaadin.alump.distributionbar.gwt.client.GwtDistributionBar.ClickListener;
 
 import com.vaadin.client.communication.RpcProxy;
 import com.vaadin.client.communication.StateChangeEvent;
 import com.vaadin.client.ui.AbstractComponentConnector;
+import com.vaadin.client.ui.layout.ElementResizeEvent;
+import com.vaadin.client.ui.layout.ElementResizeListener;
 import com.vaadin.shared.ui.Connect;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 @SuppressWarnings("serial")
 @Connect(org.vaadin.alump.distributionbar.DistributionBar.class)
@@ -28,16 +37,164 @@ public class DistributionBarConnector extends AbstractComponentConnector impleme
 			DistributionBarServerRpc.class, this);
 	private boolean clicksConnected = false;
 
-    public final int DELAYED_UPDATE_PARTS_MS = 400;
-
     /**
      * Map used to fix indexed when zero parts are removed before widget. Widget index to original index map.
      */
     private Map<Integer,Integer> indexRepair;
 
+    /**
+     * Style name of parts aggregated from multiple parts
+     */
+    public static final String AGGREGATE_STYLENAME = "alump-dbar-others";
+
+    /**
+     * Maximum number of parts listed in tooltip of aggregated part
+     */
+    public static final int AGGREGATE_TOOLTIP_MAX_ROWS = 10;
+
+    /**
+     * Ranges of cleaned parts shown by each part of widget, used when parts are aggregated. Null if every part of
+     * widget shows one part.
+     */
+    private List<int[]> aggregates;
+
+    /**
+     * Formatter of values listed in tooltips of aggregated parts
+     */
+    private ValueFormatter valueFormatter;
+
+    /**
+     * Templates of captions and tooltips, kept until template of state changes. Null if not used.
+     */
+    private PartTemplate captionTemplate;
+    private PartTemplate tooltipTemplate;
+
+    /**
+     * Parts last applied to widget, used to invalidate cached tooltips of indexes that show other part
+     */
+    private List<DistributionBarState.Part> appliedParts = new ArrayList<DistributionBarState.Part>();
+
+    private final TooltipCache tooltipCache = new TooltipCache();
+
+    /**
+     * Values applied to a part of widget. Used to skip updates of parts that have not changed.
+     */
+    private static class WidgetPart {
+        private boolean initialized = false;
+        private String key;
+        private String title;
+        private String tooltip;
+        private String styleName;
+        private int styleIndex;
+        private int index;
+        private int count;
+
+        public WidgetPart(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Values applied to parts of widget, in widget order
+     */
+    private final List<WidgetPart> widgetParts = new ArrayList<WidgetPart>();
+
+    private boolean appliedLazyTooltips = false;
+
+    /**
+     * Indexes of parts which tooltips have been requested from server
+     */
+    private final Set<Integer> pendingTooltips = new HashSet<Integer>();
+
+    private final TooltipLoader tooltipLoader = new TooltipLoader() {
+        @Override
+        public String getTooltip(int index) {
+            int stateIndex = toStateIndex(index);
+            String content = tooltipCache.get(stateIndex, getState().tooltipVersions[stateIndex]);
+            if (content == null && pendingTooltips.add(stateIndex)) {
+                serverRpc.onTooltipRequested(stateIndex);
+            }
+            return content;
+        }
+    };
+
+    /**
+     * Visibility last reported to server. Server considers bar visible until told otherwise.
+     */
+    private boolean reportedVisible = true;
+
+    private final VisibilityObserver.Listener visibilityListener = new VisibilityObserver.Listener() {
+        @Override
+        public void onVisibilityChanged(boolean visible) {
+            reportVisibility();
+        }
+    };
+
+    /**
+     * Width of widget when parts were last laid out for resize, -1 if unknown
+     */
+    private int renderedWidth = -1;
+
+    /**
+     * Resizes are measured by layout manager in a single batched pass for all
+     * components, and only bars with changed width are updated.
+     */
+    private final ElementResizeListener resizeListener = new ElementResizeListener() {
+        @Override
+        public void onElementResize(ElementResizeEvent e) {
+            int width = e.getLayoutManager().getOuterWidth(e.getElement());
+            if (width == renderedWidth) {
+                return;
+            }
+            renderedWidth = width;
+
+            if (getState().aggregateWidth > 0.0) {
+                // Parts aggregated depend on width
+                updateAllParts();
+            } else if (!getWidget().isResizedByBrowser()) {
+                getWidget().updateParts();
+            }
+        }
+    };
+
+    private final DistributionBarClientRpc clientRpc = new DistributionBarClientRpc() {
+        @Override
+        public void updateSizes(int[] indexes, double[] sizes) {
+            for (int i = 0; i < indexes.length; ++i) {
+                getState().changeSize(indexes[i], sizes[i]);
+            }
+            onPartsUpdated(indexes);
+        }
+
+        @Override
+        public void updateCaptions(int[] indexes, String[] captions) {
+            for (int i = 0; i < indexes.length; ++i) {
+                getState().changeCaption(indexes[i], captions[i]);
+            }
+            onPartsUpdated(indexes);
+        }
+
+        @Override
+        public void setTooltip(int index, int version, String content) {
+            pendingTooltips.remove(index);
+            if (index >= getState().partCount() || getState().tooltipVersions[index] != version) {
+                return;
+            }
+
+            tooltipCache.put(index, version, content);
+            int widgetIndex = toWidgetIndex(index);
+            if (widgetIndex >= 0) {
+                getWidget().tooltipLoaded(widgetIndex, content);
+            }
+        }
+    };
+
     @Override
     public void init() {
         super.init();
+        registerRpc(DistributionBarClientRpc.class, clientRpc);
+        getLayoutManager().addElementResizeListener(getWidget().getElement(), resizeListener);
+        getWidget().setVisibilityListener(visibilityListener);
         getWidget().setTooltipClassNameProvider(new TooltipClassNameProvider() {
 
             @Override
@@ -47,6 +204,12 @@ public class DistributionBarConnector extends AbstractComponentConnector impleme
         });
     }
 
+    @Override
+    public void onUnregister() {
+        getLayoutManager().removeElementResizeListener(getWidget().getElement(), resizeListener);
+        super.onUnregister();
+    }
+
     @Override
     public GwtDistributionBar getWidget() {
         return (GwtDistributionBar) super.getWidget();
@@ -72,32 +235,407 @@ public class DistributionBarConnector extends AbstractComponentConnector impleme
         	}
         }
 
-        List<DistributionBarState.Part> parts = getCleanedParts(getState().getParts());
-        getWidget().setNumberOfParts(parts.size());
+        getWidget().setVisibilityTracking(getState().reportVisibility);
+        reportVisibility();
+
+        updateAllParts();
+    }
+
+    /**
+     * Report visibility of widget to server, if it has changed
+     */
+    protected void reportVisibility() {
+        if (!getState().reportVisibility) {
+            // Server does not hold back updates when visibility is not reported
+            reportedVisible = true;
+            return;
+        }
+
+        boolean visible = getWidget().isVisibleOnScreen();
+        if (visible != reportedVisible) {
+            reportedVisible = visible;
+            serverRpc.onVisibilityChanged(visible);
+        }
+    }
+
+    /**
+     * Called when parts have been updated incrementally
+     * @param indexes Indexes of parts updated
+     */
+    protected void onPartsUpdated(int[] indexes) {
+        if(!getState().zeroVisible || getState().captionTemplate != null || getState().tooltipTemplate != null
+                || getState().aggregateWidth > 0.0) {
+            // Parts shown or rendered templates might change, so everything has to be updated
+            updateAllParts();
+            return;
+        }
+
+        for (int index : indexes) {
+            DistributionBarState.Part part = getState().readPart(index);
+            // Size and caption changes do not change tooltip version, so cached tooltip is kept
+            getWidget().setPartSize(index, part.getSize(), part.getCaption());
+            appliedParts.set(index, part);
+        }
+
+        getWidget().updateParts();
+    }
+
+    /**
+     * Update all parts of widget from state
+     */
+    protected void updateAllParts() {
+        if (getWidget().setRenderMode(getState().renderMode)) {
+            // Widget was rebuilt, so everything has to be applied again
+            widgetParts.clear();
+            tooltipCache.clear();
+            pendingTooltips.clear();
+        }
+
+        if (getState().aggregateWidth > 0.0 && getAggregationWidth() <= 0) {
+            // Parts aggregated depend on width, so parts are not built before width is known. Resize listener
+            // updates parts when width is measured.
+            return;
+        }
+
+        List<DistributionBarState.Part> allParts = getState().readParts();
+        invalidateChangedTooltips(allParts);
+
+        getWidget().setTooltipLoader(getState().lazyTooltips ? tooltipLoader : null);
+        getWidget().setAnimationDuration(getState().animationDuration);
+
+        captionTemplate = getPartTemplate(captionTemplate, getState().captionTemplate, false);
+        tooltipTemplate = getPartTemplate(tooltipTemplate, getState().tooltipTemplate, true);
+        double total = 0.0;
+        if (captionTemplate != null || tooltipTemplate != null) {
+            for (DistributionBarState.Part part : allParts) {
+                total += part.getSize();
+            }
+        }
+
+        List<DistributionBarState.Part> parts = getAggregatedParts(getCleanedParts(allParts));
+        updateStructure(parts);
+
+        boolean lazyTooltipsChanged = appliedLazyTooltips != getState().lazyTooltips;
+        appliedLazyTooltips = getState().lazyTooltips;
 
         for (int i = 0; i < parts.size(); ++i) {
             DistributionBarState.Part part = parts.get(i);
-            getWidget().setPartSize(i, part.getSize(), part.getCaption());
-            getWidget().setPartTitle(i, part.getTitle());
-            getWidget().setPartTooltip(i, part.getTooltip());
-            if(indexRepair != null) {
-                getWidget().setPartStyleName(i, indexRepair.get(i), part.getStyleName());
-            } else {
-                getWidget().setPartStyleName(i, i, part.getStyleName());
+            WidgetPart applied = widgetParts.get(i);
+
+            String caption = part.getCaption();
+            if (caption == null && captionTemplate != null && !isAggregate(i)) {
+                caption = captionTemplate.render(toStateIndex(i), part, total);
+            }
+            String tooltip = part.getTooltip();
+            if ((tooltip == null || tooltip.isEmpty()) && tooltipTemplate != null) {
+                tooltip = tooltipTemplate.render(toStateIndex(i), part, total);
+            }
+
+            getWidget().setPartSize(i, part.getSize(), caption);
+
+            if (!applied.initialized || !Objects.equals(applied.title, part.getTitle())) {
+                getWidget().setPartTitle(i, part.getTitle());
+                applied.title = part.getTitle();
+            }
+
+            // Lazy tooltips are registered with index, so moved parts have to be registered again
+            if (!applied.initialized || lazyTooltipsChanged || applied.index != i
+                    || !Objects.equals(applied.tooltip, tooltip)) {
+                getWidget().setPartTooltip(i, tooltip);
+                applied.tooltip = tooltip;
+            }
+
+            int styleIndex = toStateIndex(i);
+            if (!applied.initialized || applied.index != i || applied.count != parts.size()
+                    || applied.styleIndex != styleIndex || !Objects.equals(applied.styleName, part.getStyleName())) {
+                getWidget().setPartStyleName(i, styleIndex, part.getStyleName());
+                applied.styleName = part.getStyleName();
+                applied.styleIndex = styleIndex;
+                applied.index = i;
+                applied.count = parts.size();
             }
+
+            applied.initialized = true;
         }
 
         getWidget().setMinPartWidth(getState().minWidth);
+        getWidget().setFlexLayout(getState().flexLayout);
+        getWidget().setValueFormat(getState().valueFormat, getState().valuePattern);
 
         getWidget().updateParts();
+    }
 
-        // As Vaadin layouts will have delayed sizing, this makes sure size is double checked
-        Scheduler.get().scheduleDeferred(new Scheduler.ScheduledCommand() {
-            @Override
-            public void execute() {
-                getWidget().updateParts();
+    /**
+     * Update parts of widget to match given parts. If all parts have unique
+     * keys, parts of widget are inserted, moved and removed by key, so parts
+     * that stay are not rebuilt. Otherwise parts are handled by position.
+     *
+     * @param parts Parts shown in widget
+     */
+    protected void updateStructure(List<DistributionBarState.Part> parts) {
+        List<String> keys = new ArrayList<String>(parts.size());
+        Set<String> uniqueKeys = new HashSet<String>();
+        for (DistributionBarState.Part part : parts) {
+            if (part.getKey() == null || !uniqueKeys.add(part.getKey())) {
+                keys = null;
+                break;
             }
-        });
+            keys.add(part.getKey());
+        }
+
+        if (keys == null) {
+            getWidget().setNumberOfParts(parts.size());
+            while (widgetParts.size() > parts.size()) {
+                widgetParts.remove(widgetParts.size() - 1);
+            }
+            while (widgetParts.size() < parts.size()) {
+                widgetParts.add(new WidgetPart(null));
+            }
+            for (WidgetPart widgetPart : widgetParts) {
+                widgetPart.key = null;
+            }
+            return;
+        }
+
+        // First arrange parts with keys to the beginning, so widget never runs out of parts
+        for (int i = 0; i < keys.size(); ++i) {
+            String key = keys.get(i);
+            int current = -1;
+            for (int j = i; j < widgetParts.size(); ++j) {
+                if (key.equals(widgetParts.get(j).key)) {
+                    current = j;
+                    break;
+                }
+            }
+
+            if (current == i) {
+                continue;
+            } else if (current > i) {
+                getWidget().movePart(current, i);
+                widgetParts.add(i, widgetParts.remove(current));
+            } else {
+                getWidget().insertPart(i);
+                widgetParts.add(i, new WidgetPart(key));
+            }
+        }
+
+        // Then remove parts left over
+        while (widgetParts.size() > keys.size()) {
+            getWidget().removePart(widgetParts.size() - 1);
+            widgetParts.remove(widgetParts.size() - 1);
+        }
+    }
+
+    /**
+     * Drop cached tooltips of indexes that now show a different part. Changed tooltips of the same part are
+     * detected by cache from tooltip version.
+     */
+    private void invalidateChangedTooltips(List<DistributionBarState.Part> parts) {
+        for (int i = 0; i < parts.size(); ++i) {
+            if (i >= appliedParts.size() || !isSameTooltipPart(appliedParts.get(i), parts.get(i))) {
+                tooltipCache.invalidate(i);
+            }
+        }
+        appliedParts = parts;
+    }
+
+    private static boolean isSameTooltipPart(DistributionBarState.Part a, DistributionBarState.Part b) {
+        return a.getTooltipVersion() == b.getTooltipVersion()
+                && Objects.equals(a.getName(), b.getName())
+                && Objects.equals(a.getKey(), b.getKey());
+    }
+
+    /**
+     * Convert index of part in widget to index of part in state
+     * @param widgetIndex Index of part in widget
+     * @return Index of part in state. If part is aggregated, index of first part aggregated.
+     */
+    protected int toStateIndex(int widgetIndex) {
+        return cleanedToStateIndex(aggregates == null ? widgetIndex : aggregates.get(widgetIndex)[0]);
+    }
+
+    /**
+     * Convert index of part in widget to index of last part in state shown by it
+     * @param widgetIndex Index of part in widget
+     * @return Index of part in state. If part is aggregated, index of last part aggregated.
+     */
+    protected int toLastStateIndex(int widgetIndex) {
+        return cleanedToStateIndex(aggregates == null ? widgetIndex : aggregates.get(widgetIndex)[1]);
+    }
+
+    private int cleanedToStateIndex(int cleanedIndex) {
+        if(indexRepair != null) {
+            return indexRepair.get(cleanedIndex);
+        } else {
+            return cleanedIndex;
+        }
+    }
+
+    /**
+     * Check if part of widget is aggregated from multiple parts
+     * @param widgetIndex Index of part in widget
+     * @return true if part is aggregated
+     */
+    protected boolean isAggregate(int widgetIndex) {
+        return aggregates != null && aggregates.get(widgetIndex)[0] != aggregates.get(widgetIndex)[1];
+    }
+
+    /**
+     * Convert index of part in state to index of part in widget
+     * @param stateIndex Index of part in state
+     * @return Index of part in widget, -1 if part is not shown or is aggregated
+     */
+    protected int toWidgetIndex(int stateIndex) {
+        if(indexRepair == null && aggregates == null) {
+            return stateIndex;
+        }
+
+        for(int i = 0; i < widgetParts.size(); ++i) {
+            if(toStateIndex(i) == stateIndex && !isAggregate(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get width of widget used to aggregate parts. Before the first layout pass the width is not known by layout
+     * manager, so it is measured from element.
+     * @return Width in pixels, 0 if widget does not have width yet
+     */
+    protected int getAggregationWidth() {
+        int width = getLayoutManager().getOuterWidth(getWidget().getElement());
+        if(width <= 0) {
+            width = getWidget().getElement().getOffsetWidth();
+        }
+        return width;
+    }
+
+    /**
+     * Aggregate consecutive parts narrower than aggregate width to single parts
+     * @param parts Cleaned parts
+     * @return Parts shown in widget
+     */
+    protected List<DistributionBarState.Part> getAggregatedParts(List<DistributionBarState.Part> parts) {
+        aggregates = null;
+
+        int width = getAggregationWidth();
+        double threshold = getState().aggregateWidth;
+        if(threshold <= 0.0 || width <= 0 || parts.size() < 2) {
+            return parts;
+        }
+
+        double total = 0.0;
+        for(DistributionBarState.Part part : parts) {
+            total += part.getSize();
+        }
+        if(total <= 0.0) {
+            return parts;
+        }
+
+        List<DistributionBarState.Part> aggregated = new ArrayList<DistributionBarState.Part>();
+        List<int[]> ranges = new ArrayList<int[]>();
+
+        int i = 0;
+        while(i < parts.size()) {
+            int end = i;
+            while(end < parts.size() && parts.get(end).getSize() / total * width < threshold) {
+                ++end;
+            }
+
+            // Single narrow part is shown as it is
+            if(end - i >= 2) {
+                aggregated.add(createAggregate(parts, i, end - 1, total));
+                ranges.add(new int[] { i, end - 1 });
+                i = end;
+            } else {
+                aggregated.add(parts.get(i));
+                ranges.add(new int[] { i, i });
+                ++i;
+            }
+        }
+
+        if(aggregated.size() == parts.size()) {
+            return parts;
+        }
+
+        aggregates = ranges;
+        return aggregated;
+    }
+
+    /**
+     * Create part presenting multiple parts
+     * @param parts Cleaned parts
+     * @param first Index of first part aggregated
+     * @param last Index of last part aggregated
+     * @param total Sum of sizes of cleaned parts
+     * @return Aggregated part
+     */
+    protected DistributionBarState.Part createAggregate(List<DistributionBarState.Part> parts, int first, int last,
+            double total) {
+        // Values are shown as in parts of bar
+        ValueFormatter formatter = getValueFormatter();
+        DistributionBarState.Part aggregate = new DistributionBarState.Part();
+        aggregate.setStyleName(AGGREGATE_STYLENAME);
+
+        double size = 0.0;
+        StringBuilder tooltip = new StringBuilder();
+        for(int i = first; i <= last; ++i) {
+            DistributionBarState.Part part = parts.get(i);
+            size += part.getSize();
+
+            if(i - first < AGGREGATE_TOOLTIP_MAX_ROWS) {
+                String name = part.getName();
+                if(name == null) {
+                    name = part.getCaption() != null ? part.getCaption() : "#" + cleanedToStateIndex(i);
+                }
+                tooltip.append("<div>").append(SafeHtmlUtils.htmlEscape(name)).append(": ")
+                        .append(SafeHtmlUtils.htmlEscape(formatter.format(part.getSize(), total))).append("</div>");
+            }
+        }
+        int hidden = last - first + 1 - AGGREGATE_TOOLTIP_MAX_ROWS;
+        if(hidden > 0) {
+            tooltip.append("<div>(").append(hidden).append(" more)</div>");
+        }
+
+        aggregate.setSize(size);
+        aggregate.setTooltip(tooltip.toString());
+
+        // Aggregates get keys, so that keyed parts around them are not rebuilt
+        String firstKey = parts.get(first).getKey();
+        String lastKey = parts.get(last).getKey();
+        if(firstKey != null && lastKey != null) {
+            aggregate.setKey(AGGREGATE_STYLENAME + "\n" + firstKey + "\n" + lastKey);
+        }
+
+        return aggregate;
+    }
+
+    /**
+     * Get formatter using value format of state
+     * @return Formatter of values
+     */
+    protected ValueFormatter getValueFormatter() {
+        if(valueFormatter == null || !valueFormatter.isFormat(getState().valueFormat, getState().valuePattern)) {
+            valueFormatter = new ValueFormatter(getState().valueFormat, getState().valuePattern);
+        }
+        return valueFormatter;
+    }
+
+    /**
+     * Get template rendering given template of state
+     * @param current Template used earlier, null if none
+     * @param template Template of state, null if not used
+     * @param html true if template is XHTML
+     * @return Current template if it still renders the same template, new template or null if not used
+     */
+    protected static PartTemplate getPartTemplate(PartTemplate current, String template, boolean html) {
+        if(template == null) {
+            return null;
+        } else if(current != null && current.isTemplate(template, html)) {
+            return current;
+        }
+        return new PartTemplate(template, html);
     }
 
     protected List<DistributionBarState.Part> getCleanedParts(List<DistributionBarState.Part> parts) {
@@ -131,10 +669,10 @@ public class DistributionBarConnector extends AbstractComponentConnector impleme
                 .buildMouseEventDetails(event, getWidget()
                         .getElement());
 
-        if(indexRepair != null) {
-            serverRpc.onItemClicked(indexRepair.get(index), details);
+        if(isAggregate(index)) {
+            serverRpc.onItemRangeClicked(toStateIndex(index), toLastStateIndex(index), details);
         } else {
-            serverRpc.onItemClicked(index, details);
+            serverRpc.onItemClicked(toStateIndex(index), details);
         }
 	}
 }
@@ -0,0 +1,140 @@
+package org.vaadin.alump.distributionbar.gwt.client.connect;
+
+import com.google.gwt.i18n.client.NumberFormat;
+import com.google.gwt.safehtml.shared.SafeHtmlUtils;
+import org.vaadin.alump.distributionbar.gwt.client.shared.DistributionBarState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Template of caption or tooltip rendered with values of part. Supported
+ * placeholders are {name}, {value}, {pct}, {total} and {index}. Unknown
+ * placeholders are kept as they are.
+ */
+public class PartTemplate {
+
+    protected enum Placeholder {
+        NAME("{name}"), VALUE("{value}"), PCT("{pct}"), TOTAL("{total}"), INDEX("{index}");
+
+        private final String text;
+
+        Placeholder(String text) {
+            this.text = text;
+        }
+
+        static Placeholder find(String template, int offset) {
+            for (Placeholder placeholder : values()) {
+                if (template.startsWith(placeholder.text, offset)) {
+                    return placeholder;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final String template;
+
+    /**
+     * If true name of part is escaped as template is XHTML
+     */
+    private final boolean html;
+
+    /**
+     * Texts between placeholders, one more than placeholders
+     */
+    private final List<String> literals = new ArrayList<String>();
+
+    /**
+     * Placeholders in order of template
+     */
+    private final List<Placeholder> placeholders = new ArrayList<Placeholder>();
+
+    private NumberFormat numberFormat;
+
+    private NumberFormat percentageFormat;
+
+    public PartTemplate(String template, boolean html) {
+        this.template = template;
+        this.html = html;
+        parse();
+    }
+
+    /**
+     * Split template to literals and placeholders once, so that values
+     * rendered are never scanned for placeholders
+     */
+    private void parse() {
+        int start = 0;
+        int offset = template.indexOf('{');
+        while (offset >= 0) {
+            Placeholder placeholder = Placeholder.find(template, offset);
+            if (placeholder == null) {
+                offset = template.indexOf('{', offset + 1);
+                continue;
+            }
+            literals.add(template.substring(start, offset));
+            placeholders.add(placeholder);
+            start = offset + placeholder.text.length();
+            offset = template.indexOf('{', start);
+        }
+        literals.add(template.substring(start));
+    }
+
+    /**
+     * Check if this is rendering given template
+     * @param template Template text
+     * @param html true if template is XHTML
+     * @return true if same template
+     */
+    public boolean isTemplate(String template, boolean html) {
+        return this.html == html && this.template.equals(template);
+    }
+
+    /**
+     * Render template with values of part
+     * @param index Index of part
+     * @param part Part rendered
+     * @param total Sum of sizes of all parts
+     * @return Rendered template
+     */
+    public String render(int index, DistributionBarState.Part part, double total) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < placeholders.size(); ++i) {
+            builder.append(literals.get(i));
+            builder.append(getValue(placeholders.get(i), index, part, total));
+        }
+        builder.append(literals.get(placeholders.size()));
+        return builder.toString();
+    }
+
+    private String getValue(Placeholder placeholder, int index, DistributionBarState.Part part, double total) {
+        switch (placeholder) {
+        case NAME:
+            String name = part.getName() == null ? "" : part.getName();
+            return html ? SafeHtmlUtils.htmlEscape(name) : name;
+        case VALUE:
+            return formatNumber(part.getSize());
+        case PCT:
+            return formatPercentage(total > 0.0 ? part.getSize() / total * 100.0 : 0.0);
+        case TOTAL:
+            return formatNumber(total);
+        default:
+            return String.valueOf(index);
+        }
+    }
+
+    protected String formatNumber(double value) {
+        if (numberFormat == null) {
+            numberFormat = NumberFormat.getDecimalFormat();
+        }
+        return numberFormat.format(value);
+    }
+
+    protected String formatPercentage(double pct) {
+        if (percentageFormat == null) {
+            percentageFormat = NumberFormat.getFormat("0.#");
+        }
+        return percentageFormat.format(pct);
+    }
+}
@@ -0,0 +1,86 @@
+package org.vaadin.alump.distributionbar.gwt.client.connect;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded least recently used cache for lazy loaded tooltips. Tooltips are
+ * stored per part index with the tooltip version they were loaded for.
+ */
+public class TooltipCache {
+
+    /**
+     * Default maximum number of tooltips cached
+     */
+    public static final int DEFAULT_MAX_SIZE = 50;
+
+    private static class Entry {
+        private final int version;
+        private final String content;
+
+        public Entry(int version, String content) {
+            this.version = version;
+            this.content = content;
+        }
+    }
+
+    private final int maxSize;
+
+    private final LinkedHashMap<Integer, Entry> entries;
+
+    public TooltipCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public TooltipCache(final int maxSize) {
+        this.maxSize = maxSize;
+        entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                return size() > TooltipCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get cached tooltip
+     * @param index Index of part
+     * @param version Current tooltip version of part
+     * @return Cached content, or null if not cached for given version
+     */
+    public String get(int index, int version) {
+        Entry entry = entries.get(index);
+        if (entry == null) {
+            return null;
+        } else if (entry.version != version) {
+            entries.remove(index);
+            return null;
+        }
+        return entry.content;
+    }
+
+    /**
+     * Store tooltip to cache
+     * @param index Index of part
+     * @param version Tooltip version of part
+     * @param content Content of tooltip
+     */
+    public void put(int index, int version, String content) {
+        entries.put(index, new Entry(version, content));
+    }
+
+    /**
+     * Remove cached tooltip of part
+     * @param index Index of part
+     */
+    public void invalidate(int index) {
+        entries.remove(index);
+    }
+
+    /**
+     * Remove all cached tooltips
+     */
+    public void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,335 @@
+package org.vaadin.alump.distributionbar.gwt.client.dom;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.vaadin.alump.distributionbar.gwt.client.GwtDistributionBar;
+import org.vaadin.alump.distributionbar.gwt.client.PartModel;
+import org.vaadin.alump.distributionbar.gwt.client.dom.ThemeColors.PartColors;
+
+import com.google.gwt.canvas.dom.client.Context2d;
+import com.google.gwt.canvas.dom.client.Context2d.TextBaseline;
+import com.google.gwt.dom.client.CanvasElement;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.NativeEvent;
+import com.google.gwt.dom.client.Style.Display;
+import com.google.gwt.dom.client.Style.Unit;
+import com.google.gwt.event.dom.client.MouseMoveEvent;
+import com.google.gwt.event.dom.client.MouseMoveHandler;
+
+/**
+ * Builder that draws all parts to single canvas element. Part elements are not
+ * created, so updates do not cause any style recalculation or layout. Clicks
+ * and tooltips are resolved from cached part offsets.
+ *
+ * Background and text colors of parts are read from theme, using the same
+ * class names as with ElementBuilder. Other styling of parts (e.g. rounded
+ * corners) is not supported, and flex layout is not used.
+ */
+public class CanvasElementBuilder extends ElementBuilder {
+
+    protected static final String CANVAS_CLASSNAME = GwtDistributionBar.CLASSNAME + "-canvas";
+
+    /**
+     * Padding of value texts, matches the padding of value element in theme
+     */
+    protected static final double TEXT_PADDING_LEFT = 12.0;
+
+    /**
+     * Values of part needed for drawing
+     */
+    protected static class CanvasPart {
+        protected String className;
+        protected String title;
+
+        public CanvasPart(String className, String title) {
+            this.className = className;
+            this.title = title;
+        }
+    }
+
+    protected CanvasElement canvas;
+
+    /**
+     * Colors of part class names read from theme
+     */
+    protected ThemeColors themeColors;
+
+    protected final List<CanvasPart> canvasParts = new ArrayList<CanvasPart>();
+
+    /**
+     * Right edges of drawn parts in pixels, used for hit testing
+     */
+    protected double[] partEnds = new double[0];
+
+    protected int measuredHeight = 0;
+
+    protected String font;
+
+    /**
+     * Index of part which title is currently in canvas title attribute
+     */
+    protected int titleIndex = -1;
+
+    private boolean titleHandlerAdded = false;
+
+    @Override
+    public Element initRootElement() {
+        Element element = super.initRootElement();
+
+        canvasParts.clear();
+        partEnds = new double[0];
+        font = null;
+        titleIndex = -1;
+
+        canvas = Document.get().createCanvasElement();
+        canvas.setClassName(CANVAS_CLASSNAME);
+        canvas.getStyle().setDisplay(Display.BLOCK);
+        canvas.getStyle().setWidth(100.0, Unit.PCT);
+        canvas.getStyle().setHeight(100.0, Unit.PCT);
+        element.appendChild(canvas);
+
+        themeColors = new ThemeColors(element);
+
+        if (!titleHandlerAdded) {
+            handlerRegistrations.add(parent.addDomHandler(titleHandler, MouseMoveEvent.getType()));
+            titleHandlerAdded = true;
+        }
+
+        return element;
+    }
+
+    /**
+     * Updates title attribute of canvas to match the part under mouse
+     */
+    private final MouseMoveHandler titleHandler = new MouseMoveHandler() {
+        @Override
+        public void onMouseMove(MouseMoveEvent event) {
+            int index = findPartIndex(event.getNativeEvent());
+            if (index != titleIndex) {
+                titleIndex = index;
+                updateCanvasTitle();
+            }
+        }
+    };
+
+    private void updateCanvasTitle() {
+        String title = titleIndex >= 0 && titleIndex < canvasParts.size()
+                ? canvasParts.get(titleIndex).title : null;
+        if (title == null || title.isEmpty()) {
+            canvas.removeAttribute("title");
+        } else {
+            canvas.setAttribute("title", title);
+        }
+    }
+
+    /**
+     * Flex layout is not used with canvas
+     */
+    @Override
+    public void setFlexLayout(boolean flexLayout) {
+        parent.removeStyleName(FLEX_CLASSNAME);
+    }
+
+    @Override
+    public void insertPartElement(int index, int parts, double size, String title) {
+        canvasParts.add(index, new CanvasPart(getPartClassNames(index, index, parts, null), title));
+        getToolTip().partInserted(index);
+    }
+
+    @Override
+    public void removeLastPartElement() {
+        if (!canvasParts.isEmpty()) {
+            removePartElement(canvasParts.size() - 1);
+        }
+    }
+
+    @Override
+    public void removePartElement(int index) {
+        canvasParts.remove(index);
+        getToolTip().partRemoved(index);
+    }
+
+    @Override
+    public void movePartElement(int from, int to) {
+        canvasParts.add(to, canvasParts.remove(from));
+        getToolTip().partMoved(from, to);
+    }
+
+    /**
+     * Parts do not have own elements, so canvas is returned for all valid
+     * indexes.
+     */
+    @Override
+    public Element getPartElement(int index) {
+        if (index < 0 || index >= canvasParts.size()) {
+            return null;
+        }
+        return canvas;
+    }
+
+    @Override
+    public int getPartElementCount() {
+        return canvasParts.size();
+    }
+
+    @Override
+    public void changePartTitle(int index, String title) {
+        if (index >= 0 && index < canvasParts.size()) {
+            canvasParts.get(index).title = title;
+            if (index == titleIndex) {
+                updateCanvasTitle();
+            }
+        }
+    }
+
+    @Override
+    public void changePartStyleName(int index, int styleIndex, int parts, String styleName) {
+        if (index >= 0 && index < canvasParts.size()) {
+            canvasParts.get(index).className = getPartClassNames(index, styleIndex, parts, styleName);
+        }
+    }
+
+    /**
+     * Targets of events are always the canvas, so parts can not be resolved
+     * from elements.
+     */
+    @Override
+    public int findPartIndex(Element target) {
+        return -1;
+    }
+
+    @Override
+    public int findPartIndex(NativeEvent event) {
+        double x = event.getClientX() - canvas.getAbsoluteLeft() + Document.get().getScrollLeft();
+        if (x < 0.0 || partEnds.length == 0 || x >= partEnds[partEnds.length - 1]) {
+            return -1;
+        }
+
+        // Binary search for first part ending after x
+        int low = 0;
+        int high = partEnds.length - 1;
+        while (low < high) {
+            int middle = (low + high) / 2;
+            if (partEnds[middle] <= x) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int getPartAbsoluteLeft(int index) {
+        double start = index > 0 && index <= partEnds.length ? partEnds[index - 1] : 0.0;
+        return canvas.getAbsoluteLeft() + (int) Math.round(start);
+    }
+
+    @Override
+    public int getPartAbsoluteRight(int index) {
+        double end = index >= 0 && index < partEnds.length ? partEnds[index] : 0.0;
+        return canvas.getAbsoluteLeft() + (int) Math.round(end);
+    }
+
+    @Override
+    public int measureFullWidth() {
+        measuredHeight = parent.getElement().getClientHeight();
+        return getFullWidth();
+    }
+
+    @Override
+    public void updateParts(PartModel model, double minElementWidth, int totalWidth) {
+
+        final int parts = Math.min(model.size(), canvasParts.size());
+        final double totalSize = model.getTotal();
+        final double width = totalWidth;
+        final double height = measuredHeight;
+
+        if (width <= 0.0 || height <= 0.0 || parts == 0) {
+            partEnds = new double[0];
+            return;
+        }
+
+        if (width < minElementWidth * (double) parts) {
+            minElementWidth = width / (double) parts;
+        }
+
+        double ratio = getDevicePixelRatio();
+        int pixelWidth = (int) Math.round(width * ratio);
+        int pixelHeight = (int) Math.round(height * ratio);
+        if (canvas.getWidth() != pixelWidth) {
+            canvas.setWidth(pixelWidth);
+        }
+        if (canvas.getHeight() != pixelHeight) {
+            canvas.setHeight(pixelHeight);
+        }
+
+        Context2d context = canvas.getContext2d();
+        context.setTransform(ratio, 0.0, 0.0, ratio, 0.0, 0.0);
+        context.clearRect(0.0, 0.0, width, height);
+        context.setFont(getFont());
+        context.setTextBaseline(TextBaseline.MIDDLE);
+
+        if (partEnds.length != parts) {
+            partEnds = new double[parts];
+        }
+
+        double x = 0.0;
+        for (int i = 0; i < parts; ++i) {
+            double size = model.getSize(i);
+
+            double partWidth;
+            if (totalSize == 0.0) {
+                partWidth = width / (double) parts;
+            } else {
+                partWidth = minElementWidth + size / totalSize
+                        * (width - minElementWidth * (double) parts);
+            }
+
+            String caption = model.getCaption(i);
+            if (caption == null) {
+                caption = valueFormatter.format(i, size, totalSize);
+            }
+
+            PartColors partColors = themeColors.get(canvasParts.get(i).className);
+            context.setFillStyle(partColors.background);
+            context.fillRect(x, 0.0, partWidth, height);
+
+            if (partWidth > TEXT_PADDING_LEFT && !caption.isEmpty()) {
+                context.save();
+                context.beginPath();
+                context.rect(x, 0.0, partWidth, height);
+                context.clip();
+                context.setFillStyle(partColors.text);
+                context.fillText(caption, x + TEXT_PADDING_LEFT, height / 2.0);
+                context.restore();
+            }
+
+            x += partWidth;
+            partEnds[i] = x;
+        }
+    }
+
+    /**
+     * Get font of value texts from theme
+     *
+     * @return Font in CSS font shorthand format
+     */
+    protected String getFont() {
+        if (font == null) {
+            Element element = parent.getElement();
+            font = ThemeColors.getComputedStyle(element, "fontStyle") + " "
+                    + ThemeColors.getComputedStyle(element, "fontWeight") + " "
+                    + ThemeColors.getComputedStyle(element, "fontSize") + " "
+                    + ThemeColors.getComputedStyle(element, "fontFamily");
+        }
+        return font;
+    }
+
+    private static native double getDevicePixelRatio()
+    /*-{
+        return $wnd.devicePixelRatio || 1.0;
+    }-*/;
+}
@@ -17,19 +17,23 @@
  */
 package org.vaadin.alump.distributionbar.gwt.client.dom;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.logging.Logger;
 
 import org.vaadin.alump.distributionbar.gwt.client.GwtDistributionBar;
+import org.vaadin.alump.distributionbar.gwt.client.PartModel;
+import org.vaadin.alump.distributionbar.gwt.client.shared.ValueFormat;
 
 import com.google.gwt.dom.client.Document;
 import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.NativeEvent;
 import com.google.gwt.dom.client.Style;
 import com.google.gwt.dom.client.Style.Unit;
 import com.google.gwt.event.dom.client.MouseMoveEvent;
 import com.google.gwt.event.dom.client.MouseOutEvent;
 import com.google.gwt.event.dom.client.MouseOverEvent;
+import com.google.gwt.event.shared.HandlerRegistration;
 import com.google.gwt.safehtml.shared.SafeHtmlUtils;
 
 import javax.tools.Tool;
@@ -46,6 +50,12 @@ public class ElementBuilder {
     protected static final String PART_CLASSNAME_PREFIX = PART_CLASSNAME + "-";
     protected static final String PART_VALUE_CLASSNAME = GwtDistributionBar.CLASSNAME
             + "-value";
+    /**
+     * Attribute of part element containing index of part
+     */
+    public static final String PART_INDEX_ATTRIBUTE = "data-part-index";
+    protected static final String FLEX_CLASSNAME = GwtDistributionBar.CLASSNAME
+            + "-flex";
     protected static final String UNINITIALIZED_VALUE_CLASSNAME = GwtDistributionBar.CLASSNAME
             + "-uninitizalized";
 
@@ -63,6 +73,64 @@ public class ElementBuilder {
 
     protected ToolTipPresenter.TooltipClassNameProvider tooltipClassNameProvider;
 
+    protected ToolTipPresenter.TooltipLoader tooltipLoader;
+
+    /**
+     * Handlers registered to widget by this builder, removed in dispose
+     */
+    protected final List<HandlerRegistration> handlerRegistrations = new ArrayList<HandlerRegistration>();
+
+    /**
+     * Formatter of sizes shown in parts without caption
+     */
+    protected ValueFormatter valueFormatter = new ValueFormatter(ValueFormat.ABSOLUTE, null);
+
+    /**
+     * Width changes smaller than this (in pixels or percents) are not written
+     * to DOM
+     */
+    public static final double WIDTH_THRESHOLD = 0.1;
+
+    /**
+     * Values last written to DOM of part element. Used to skip DOM writes
+     * when nothing has changed.
+     */
+    protected static class RenderedPart {
+        protected String text;
+        protected double width = -1.0;
+        protected Style.Unit unit;
+        protected double grow = -1.0;
+        protected double minWidth = -1.0;
+
+        public RenderedPart(String text) {
+            this.text = text;
+        }
+
+        protected void clearSize() {
+            width = -1.0;
+            unit = null;
+            grow = -1.0;
+            minWidth = -1.0;
+        }
+    }
+
+    /**
+     * Values currently shown in part elements, in index order
+     */
+    protected final List<RenderedPart> renderedParts = new ArrayList<RenderedPart>();
+
+    /**
+     * Part elements in index order. Kept in sync by initRootElement and
+     * addPartElement, so that part elements can be accessed without walking
+     * the DOM tree.
+     */
+    protected final List<Element> partElements = new ArrayList<Element>();
+
+    /**
+     * If true parts are laid out with CSS flexbox instead of pixel widths
+     */
+    protected boolean flexLayout = false;
+
     /**
      * Empty constructor for GWT.create. setParent must be called always after
      * this to have instance correctly initialized.
@@ -75,15 +143,95 @@ public class ElementBuilder {
         tooltipClassNameProvider = provider;
     }
 
-    private ToolTipPresenter getToolTip() {
+    /**
+     * Define loader used for parts without tooltip content. If null, parts
+     * without content will not have tooltips.
+     *
+     * @param loader
+     *            Loader of lazy loaded tooltips
+     */
+    public void setTooltipLoader(ToolTipPresenter.TooltipLoader loader) {
+        tooltipLoader = loader;
+    }
+
+    /**
+     * Define how sizes are shown in parts without caption
+     *
+     * @param format
+     *            Format of values
+     * @param pattern
+     *            Number pattern, null to use default of format
+     */
+    public void setValueFormat(ValueFormat format, String pattern) {
+        if (!valueFormatter.isFormat(format, pattern)) {
+            valueFormatter = new ValueFormatter(format, pattern);
+        }
+    }
+
+    /**
+     * Define if parts are laid out with CSS flexbox. In flex layout the width
+     * of bar is never read, and browser handles resizing without JavaScript.
+     *
+     * @param flexLayout
+     *            true to use flex layout, false to use pixel widths
+     */
+    public void setFlexLayout(boolean flexLayout) {
+        if (this.flexLayout == flexLayout) {
+            return;
+        }
+
+        this.flexLayout = flexLayout;
+        if (flexLayout) {
+            parent.addStyleName(FLEX_CLASSNAME);
+        } else {
+            parent.removeStyleName(FLEX_CLASSNAME);
+        }
+
+        // Sizes of other layout are cleared, new ones are set in next update
+        for (Element element : partElements) {
+            Style style = element.getStyle();
+            style.clearWidth();
+            style.clearProperty("flexGrow");
+            style.clearProperty("minWidth");
+        }
+        for (RenderedPart rendered : renderedParts) {
+            rendered.clearSize();
+        }
+    }
+
+    /**
+     * Check if browser resizes parts without calling updateParts, e.g. when
+     * flex layout is used.
+     *
+     * @return true if resizing of bar does not require updateParts
+     */
+    public boolean isResizedByBrowser() {
+        return flexLayout;
+    }
+
+    /**
+     * Called when content of lazy loaded tooltip is available
+     *
+     * @param index
+     *            Index of part
+     * @param content
+     *            Content of tooltip in XHTML
+     */
+    public void tooltipLoaded(int index, String content) {
+        if (tooltip != null) {
+            tooltip.tooltipLoaded(index, content);
+        }
+    }
+
+    protected ToolTipPresenter getToolTip() {
         if (tooltip == null) {
-            tooltip = new ToolTipPresenter();
+            tooltip = new ToolTipPresenter(this);
             if(tooltipClassNameProvider != null) {
                 tooltip.setTooltipClassNameProvider(tooltipClassNameProvider);
             }
-            parent.addDomHandler(tooltip, MouseOutEvent.getType());
-            parent.addDomHandler(tooltip, MouseOverEvent.getType());
-            parent.addDomHandler(tooltip, MouseMoveEvent.getType());
+            handlerRegistrations.add(parent.addDomHandler(tooltip, MouseOutEvent.getType()));
+            handlerRegistrations.add(parent.addDomHandler(tooltip, MouseOverEvent.getType()));
+            handlerRegistrations.add(parent.addDomHandler(tooltip, MouseMoveEvent.getType()));
         }
 
         return tooltip;
@@ -100,6 +248,21 @@ public class ElementBuilder {
         this.parent = parent;
     }
 
+    /**
+     * Called when builder is replaced with other builder. Removes handlers
+     * and tooltips of this builder. Builder can not be used after this.
+     */
+    public void dispose() {
+        releaseToolTips();
+        if (flexLayout) {
+            parent.removeStyleName(FLEX_CLASSNAME);
+        }
+        for (HandlerRegistration registration : handlerRegistrations) {
+            registration.removeHandler();
+        }
+        handlerRegistrations.clear();
+    }
+
     /**
      * Return full width of root element. Used to calculate width of parts.
      * 
@@ -139,7 +302,10 @@ public class ElementBuilder {
 
         if (element != null) {
 
-            getToolTip().clearAllToolTips();
+            getToolTip().release();
+            renderedParts.clear();
+            partElements.clear();
+            valueFormatter.clearCache();
 
             Element child = null;
             while ((child = element.getFirstChildElement()) != null) {
@@ -168,6 +334,21 @@ public class ElementBuilder {
      *            Extra style name(s) defined by used
      */
     public void setPartClassNames(Element element, int index, int styleIndex, int parts, String extraStyleName) {
+        element.setClassName(getPartClassNames(index, styleIndex, parts, extraStyleName));
+    }
+
+    /**
+     * Generate class names of part
+     *
+     * @param index
+     *            Index of part (useful for left/middle/right)
+     * @param parts
+     *            Number of parts totally (useful for left/middle/right)
+     * @param extraStyleName
+     *            Extra style name(s) defined by used
+     * @return Class names separated with spaces
+     */
+    public String getPartClassNames(int index, int styleIndex, int parts, String extraStyleName) {
         String styleName = GwtDistributionBar.CLASSNAME;
 
         // Allows styling like rounded corners
@@ -181,12 +362,12 @@ public class ElementBuilder {
             styleName += "-middle";
         }
 
-        element.setClassName(styleName);
-        element.addClassName(PART_CLASSNAME);
-        element.addClassName(PART_CLASSNAME_PREFIX + String.valueOf(styleIndex + 1));
-        if(extraStyleName != null) {
-            element.addClassName(extraStyleName);
+        styleName += " " + PART_CLASSNAME;
+        styleName += " " + PART_CLASSNAME_PREFIX + String.valueOf(styleIndex + 1);
+        if(extraStyleName != null && !extraStyleName.trim().isEmpty()) {
+            styleName += " " + extraStyleName.trim();
         }
+        return styleName;
     }
 
     /**
@@ -202,6 +383,22 @@ public class ElementBuilder {
      *            Title of part added
      */
     public void addPartElement(int index, int parts, double size, String title) {
+        insertPartElement(partElements.size(), parts, size, title);
+    }
+
+    /**
+     * Inserts new DOM element under widget
+     *
+     * @param index
+     *            Index for inserted part
+     * @param parts
+     *            Number of parts
+     * @param size
+     *            Size of part inserted
+     * @param title
+     *            Title of part inserted
+     */
+    public void insertPartElement(int index, int parts, double size, String title) {
 
         final Element element = createPartElement();
         setPartClassNames(element, index, index, parts, null);
@@ -209,11 +406,154 @@ public class ElementBuilder {
 
         Element textElem = Document.get().createSpanElement();
         textElem.setClassName(PART_VALUE_CLASSNAME);
-        textElem.setInnerText(String.valueOf(size));
+        // Sum of sizes is not known yet, text is formatted again when parts are updated
+        String text = valueFormatter.format(size, 0.0);
+        textElem.setInnerText(text);
 
         element.appendChild(textElem);
 
-        getParentElementForParts().appendChild(element);
+        if (index < partElements.size()) {
+            getParentElementForParts().insertBefore(element, partElements.get(index));
+        } else {
+            getParentElementForParts().appendChild(element);
+        }
+        partElements.add(index, element);
+        renderedParts.add(index, new RenderedPart(text));
+        updatePartIndexes(index);
+        getToolTip().partInserted(index);
+    }
+
+    /**
+     * Removes DOM element of the last part
+     */
+    public void removeLastPartElement() {
+        if (!partElements.isEmpty()) {
+            removePartElement(partElements.size() - 1);
+        }
+    }
+
+    /**
+     * Removes DOM element of part
+     *
+     * @param index
+     *            Index of part removed
+     */
+    public void removePartElement(int index) {
+        Element element = partElements.remove(index);
+        renderedParts.remove(index);
+        element.removeFromParent();
+        updatePartIndexes(index);
+        getToolTip().partRemoved(index);
+    }
+
+    /**
+     * Moves DOM element of part to new index
+     *
+     * @param from
+     *            Current index of part
+     * @param to
+     *            New index of part
+     */
+    public void movePartElement(int from, int to) {
+        Element element = partElements.remove(from);
+        partElements.add(to, element);
+        renderedParts.add(to, renderedParts.remove(from));
+
+        if (to + 1 < partElements.size()) {
+            getParentElementForParts().insertBefore(element, partElements.get(to + 1));
+        } else {
+            getParentElementForParts().appendChild(element);
+        }
+        updatePartIndexes(Math.min(from, to));
+        getToolTip().partMoved(from, to);
+    }
+
+    /**
+     * Update index attributes of part elements, starting from given index
+     *
+     * @param from
+     *            First index updated
+     */
+    protected void updatePartIndexes(int from) {
+        for (int i = from; i < partElements.size(); ++i) {
+            partElements.get(i).setAttribute(PART_INDEX_ATTRIBUTE, String.valueOf(i));
+        }
+    }
+
+    /**
+     * Find index of part containing given element. Only parents of element
+     * are walked through, so this is fast also with many parts.
+     *
+     * @param target
+     *            Element inside part, e.g. target of event
+     * @return Index of part, or -1 if element is not inside any part
+     */
+    public int findPartIndex(Element target) {
+        Element root = getParentElementForParts();
+        Element element = target;
+        while (element != null && element != root) {
+            String index = element.getAttribute(PART_INDEX_ATTRIBUTE);
+            if (index != null && !index.isEmpty()) {
+                return Integer.parseInt(index);
+            }
+            element = element.getParentElement();
+        }
+        return -1;
+    }
+
+    /**
+     * Find index of part under mouse event
+     *
+     * @param event
+     *            Mouse event
+     * @return Index of part, or -1 if event is not on any part
+     */
+    public int findPartIndex(NativeEvent event) {
+        return findPartIndex(Element.as(event.getEventTarget()));
+    }
+
+    /**
+     * Get absolute left position of part, used to position tooltips
+     *
+     * @param index
+     *            Index of part
+     * @return Absolute left coordinate in pixels
+     */
+    public int getPartAbsoluteLeft(int index) {
+        return getPartElement(index).getAbsoluteLeft();
+    }
+
+    /**
+     * Get absolute right position of part, used to position tooltips
+     *
+     * @param index
+     *            Index of part
+     * @return Absolute right coordinate in pixels
+     */
+    public int getPartAbsoluteRight(int index) {
+        return getPartElement(index).getAbsoluteRight();
+    }
+
+    /**
+     * Get absolute top position of part, used to position tooltips
+     *
+     * @param index
+     *            Index of part
+     * @return Absolute top coordinate in pixels
+     */
+    public int getPartAbsoluteTop(int index) {
+        return getPartElement(index).getAbsoluteTop();
+    }
+
+    /**
+     * Get absolute bottom position of part, used to position tooltips
+     *
+     * @param index
+     *            Index of part
+     * @return Absolute bottom coordinate in pixels
+     */
+    public int getPartAbsoluteBottom(int index) {
+        return getPartElement(index).getAbsoluteBottom();
     }
 
     /**
@@ -239,13 +579,19 @@ public class ElementBuilder {
      * @return Element of part.
      */
     public Element getPartElement(int index) {
-        Element element = getFirstPartElement();
-
-        for (int i = 0; i < index && element != null; ++i) {
-            element = element.getNextSiblingElement();
+        if (index < 0 || index >= partElements.size()) {
+            return null;
         }
+        return partElements.get(index);
+    }
 
-        return element;
+    /**
+     * Get number of part elements
+     *
+     * @return Number of part elements
+     */
+    public int getPartElementCount() {
+        return partElements.size();
     }
 
     /**
@@ -271,15 +617,61 @@ public class ElementBuilder {
         }
     }
 
-    public void changePartTooltip(int index, String content) {
-        Element element = getPartElement(index);
+    /**
+     * Called when tooltip of part has changed in model of widget
+     *
+     * @param index
+     *            Index of part modified
+     */
+    public void partToolTipChanged(int index) {
+        getToolTip().toolTipChanged(index);
+    }
 
-        if (element != null) {
-            if (content.isEmpty()) {
-                getToolTip().removeToolTip(element);
-            } else {
-                getToolTip().setToolTip(element, content);
-            }
+    /**
+     * Get tooltip content of part. If part does not have content and lazy
+     * loading is used, content is asked from loader.
+     *
+     * @param index
+     *            Index of part
+     * @return Content of tooltip in XHTML, or null if not available
+     */
+    public String getPartToolTip(int index) {
+        PartModel model = parent.getPartModel();
+        if (index < 0 || index >= model.size()) {
+            return null;
+        }
+
+        String content = model.getTooltip(index);
+        if ((content == null || content.isEmpty()) && tooltipLoader != null) {
+            content = tooltipLoader.getTooltip(index);
+        }
+        return content;
+    }
+
+    /**
+     * Check if part has tooltip, or tooltip can be lazy loaded
+     *
+     * @param index
+     *            Index of part
+     * @return true if part has tooltip
+     */
+    public boolean hasPartToolTip(int index) {
+        PartModel model = parent.getPartModel();
+        if (index < 0 || index >= model.size()) {
+            return false;
+        }
+
+        String content = model.getTooltip(index);
+        return (content != null && !content.isEmpty()) || tooltipLoader != null;
+    }
+
+    /**
+     * Hide tooltip and release parsed tooltip contents. Called when widget is
+     * detached.
+     */
+    public void releaseToolTips() {
+        if (tooltip != null) {
+            tooltip.release();
         }
     }
 
@@ -291,35 +683,125 @@ public class ElementBuilder {
         }
     }
 
+    /**
+     * Read width of bar needed by updateParts. Flex layout does not need the
+     * width of bar, so layout is not forced in that case.
+     *
+     * @return Full width of the root element in pixels, or 0 if not needed
+     */
+    public int measureFullWidth() {
+        return flexLayout ? 0 : getFullWidth();
+    }
+
     /**
      * Update DOM presentation of distribution. This has to be called always
      * after changes are done to parts.
      */
-    public void updateParts(List<Double> sizes, Map<Integer,String> captions, double minElementWidth) {
+    public void updateParts(PartModel model, double minElementWidth) {
+        updateParts(model, minElementWidth, measureFullWidth());
+    }
 
-        double totalSize = parent.totalSize();
+    /**
+     * Update DOM presentation of distribution with width measured earlier
+     * with measureFullWidth. This will not read anything from DOM, so it can
+     * be called in write phase of rendering.
+     */
+    public void updateParts(PartModel model, double minElementWidth, int totalWidth) {
 
-        Element element = getFirstPartElement();
-        int totalWidth = getFullWidth();
+        final int parts = model.size();
+        final double totalSize = model.getTotal();
 
-        if(totalWidth < minElementWidth * (double)sizes.size()) {
-            minElementWidth = (double)totalWidth / (double)sizes.size();
+        if(!flexLayout && totalWidth < minElementWidth * (double)parts) {
+            minElementWidth = (double)totalWidth / (double)parts;
         }
 
-        for (int i = 0; (i < sizes.size()) && (element != null); ++i) {
+        for (int i = 0; (i < parts) && (i < partElements.size()); ++i) {
 
-            double size = sizes.get(i);
+            Element element = partElements.get(i);
 
-            String caption = captions.get(i);
+            double size = model.getSize(i);
+
+            String caption = model.getCaption(i);
             if(caption == null) {
-                caption = String.valueOf(size);
+                caption = valueFormatter.format(i, size, totalSize);
+            }
+
+            // Values are only written to DOM when they have changed
+            RenderedPart rendered = renderedParts.get(i);
+            if(!caption.equals(rendered.text)) {
+                setPartElementValueText(element, caption);
+                rendered.text = caption;
+            }
+
+            if (flexLayout) {
+                renderPartFlex(element, rendered, size, totalSize, minElementWidth);
+            } else {
+                renderPartWidth(element, rendered, size, totalSize, parts,
+                        totalWidth, minElementWidth);
+            }
+        }
+    }
+
+    /**
+     * Write width of part element, if it differs from rendered width more
+     * than WIDTH_THRESHOLD
+     *
+     * @param part
+     *            Part element
+     * @param rendered
+     *            Values rendered to part element, null to always write
+     */
+    protected void renderPartWidth(Element part, RenderedPart rendered, double size,
+            double total, double parts, double parentSize, double minElementSize) {
+
+        double elementSize = 0.0;
+        Style.Unit elementSizeUnit = Unit.PX;
+
+        if (parentSize <= 0.0 || total == 0.0) {
+            elementSize = Math.floor(100.0 / parts);
+            elementSizeUnit = Unit.PCT;
+        } else {
+            final double minTotalSize = minElementSize * parts;
+            final double availableSize = parentSize - minTotalSize;
+
+            elementSize = minElementSize + size / total * availableSize;
+        }
+
+        if (rendered == null || rendered.unit != elementSizeUnit
+                || Math.abs(rendered.width - elementSize) >= WIDTH_THRESHOLD) {
+            setPartElementWidth(part, elementSize, elementSizeUnit);
+            if (rendered != null) {
+                rendered.width = elementSize;
+                rendered.unit = elementSizeUnit;
             }
+        }
+    }
+
+    /**
+     * Write flex grow and minimum width of part element, if those have changed
+     *
+     * @param part
+     *            Part element
+     * @param rendered
+     *            Values rendered to part element, null to always write
+     */
+    protected void renderPartFlex(Element part, RenderedPart rendered, double size,
+            double total, double minElementSize) {
 
-            setPartElementSize(element, size, totalSize, sizes.size(),
-                    totalWidth, minElementWidth, caption);
+        // If there is nothing to distribute, all parts get the same width
+        double grow = total == 0.0 ? 1.0 : size;
 
-            Element nextElement = element.getNextSiblingElement();
-            element = nextElement;
+        Style style = part.getStyle();
+        if (rendered == null || rendered.grow != grow) {
+            style.setProperty("flexGrow", String.valueOf(grow));
+        }
+        if (rendered == null || rendered.minWidth != minElementSize) {
+            style.setProperty("minWidth", minElementSize, Unit.PX);
+        }
+
+        if (rendered != null) {
+            rendered.grow = grow;
+            rendered.minWidth = minElementSize;
         }
     }
 
@@ -339,26 +821,16 @@ public class ElementBuilder {
      * @param minElementSize
      *            Minimum width of part with value
      * @param caption
-     *            Caption shown in element
+     *            Caption shown in element, null to keep current text
      */
     public void setPartElementSize(Element part, double size, double total,
             double parts, double parentSize, double minElementSize, String caption) {
 
-        double elementSize = 0.0;
-        Style.Unit elementSizeUnit = Unit.PX;
-
-        if (parentSize <= 0.0 || total == 0.0) {
-            elementSize = Math.floor(100.0 / parts);
-            elementSizeUnit = Unit.PCT;
-        } else {
-            final double minTotalSize = minElementSize * parts;
-            final double availableSize = parentSize - minTotalSize;
+        renderPartWidth(part, null, size, total, parts, parentSize, minElementSize);
 
-            elementSize = minElementSize + size / total * availableSize;
+        if (caption != null) {
+            setPartElementValueText(part, caption);
         }
-
-        setPartElementWidth(part, elementSize, elementSizeUnit);
-        setPartElementValueText(part, caption);
     }
 
     /**
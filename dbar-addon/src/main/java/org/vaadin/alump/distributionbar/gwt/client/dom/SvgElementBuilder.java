@@ -0,0 +1,347 @@
+package org.vaadin.alump.distributionbar.gwt.client.dom;
+
+import org.vaadin.alump.distributionbar.gwt.client.GwtDistributionBar;
+import org.vaadin.alump.distributionbar.gwt.client.PartModel;
+import org.vaadin.alump.distributionbar.gwt.client.dom.ThemeColors.PartColors;
+
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.Node;
+import com.google.gwt.dom.client.Style;
+import com.google.gwt.dom.client.Style.Display;
+import com.google.gwt.dom.client.Style.Unit;
+
+/**
+ * Builder that renders all parts inside single inline SVG element. Each part
+ * is a nested svg element, with rect and text, positioned with percentage
+ * attributes. Browser resizes parts with the bar, so resizing does not need
+ * any JavaScript, unless minimum width of parts is used.
+ *
+ * Parts have the same class names as with ElementBuilder. Background and text
+ * colors are read from theme and set as fill attributes, so theme rules with
+ * fill property override those. Layout rules of theme for HTML parts are
+ * reset under the SVG element. Other styling of parts (e.g. rounded corners)
+ * is not supported, and flex layout is not used.
+ */
+public class SvgElementBuilder extends ElementBuilder {
+
+    protected static final String SVG_NAMESPACE = "http://www.w3.org/2000/svg";
+
+    protected static final String SVG_CLASSNAME = GwtDistributionBar.CLASSNAME + "-svg";
+
+    /**
+     * Padding of value texts, matches the padding of value element in theme
+     */
+    protected static final double TEXT_PADDING_LEFT = 12.0;
+
+    /**
+     * Values last written to SVG elements of part
+     */
+    protected static class SvgPart extends RenderedPart {
+        protected final Element textElement;
+        protected final Element titleElement;
+        protected final Element rectElement;
+        protected String className;
+        protected String colorsClassName;
+        protected double x = -1.0;
+
+        public SvgPart(String text, String className, Element rectElement,
+                Element textElement, Element titleElement) {
+            super(text);
+            this.className = className;
+            this.rectElement = rectElement;
+            this.textElement = textElement;
+            this.titleElement = titleElement;
+        }
+    }
+
+    protected Element svg;
+
+    /**
+     * Colors of part class names read from theme
+     */
+    protected ThemeColors themeColors;
+
+    /**
+     * Minimum width of parts in pixels, as given in last update
+     */
+    protected double minElementWidth = 0.0;
+
+    @Override
+    public Element initRootElement() {
+        Element element = super.initRootElement();
+
+        svg = createSvgElement("svg");
+        svg.setAttribute("class", SVG_CLASSNAME);
+        svg.setAttribute("width", "100%");
+        svg.setAttribute("height", "100%");
+        svg.getStyle().setDisplay(Display.BLOCK);
+        element.appendChild(svg);
+
+        themeColors = new ThemeColors(element);
+
+        return element;
+    }
+
+    /**
+     * Flex layout is not used with SVG
+     */
+    @Override
+    public void setFlexLayout(boolean flexLayout) {
+        parent.removeStyleName(FLEX_CLASSNAME);
+    }
+
+    /**
+     * Parts are positioned with percentages, so browser resizes them. Minimum
+     * width of parts is a share of the width of bar, so it has to be
+     * calculated again when bar is resized.
+     */
+    @Override
+    public boolean isResizedByBrowser() {
+        return minElementWidth <= 0.0;
+    }
+
+    @Override
+    public int measureFullWidth() {
+        return getFullWidth();
+    }
+
+    @Override
+    public Element getParentElementForParts() {
+        return svg != null ? svg : super.getParentElementForParts();
+    }
+
+    @Override
+    public Element getFirstPartElement() {
+        return partElements.isEmpty() ? null : partElements.get(0);
+    }
+
+    /**
+     * Warning is HTML, so it is added next to the SVG element
+     */
+    @Override
+    public void addUninitializedWarning() {
+        Element element = Document.get().createDivElement();
+
+        Element content = Document.get().createSpanElement();
+        content.setClassName(UNINITIALIZED_VALUE_CLASSNAME);
+        content.setInnerText("uninitialized");
+        element.appendChild(content);
+
+        parent.getElement().appendChild(element);
+    }
+
+    @Override
+    public Element createPartElement() {
+        Element element = createSvgElement("svg");
+        element.setAttribute("x", "0");
+        element.setAttribute("width", "0");
+        element.setAttribute("height", "100%");
+        return element;
+    }
+
+    @Override
+    public void setPartClassNames(Element element, int index, int styleIndex, int parts, String extraStyleName) {
+        // className of SVG elements can not be set as string
+        element.setAttribute("class", getPartClassNames(index, styleIndex, parts, extraStyleName));
+    }
+
+    @Override
+    public void insertPartElement(int index, int parts, double size, String title) {
+
+        final Element element = createPartElement();
+        setPartClassNames(element, index, index, parts, null);
+
+        Element rect = createSvgElement("rect");
+        rect.setAttribute("width", "100%");
+        rect.setAttribute("height", "100%");
+        element.appendChild(rect);
+
+        Element textElem = createSvgElement("text");
+        textElem.setAttribute("class", PART_VALUE_CLASSNAME);
+        textElem.setAttribute("x", String.valueOf(TEXT_PADDING_LEFT));
+        textElem.setAttribute("y", "50%");
+        textElem.setAttribute("dominant-baseline", "central");
+        // Sum of sizes is not known yet, text is formatted again when parts are updated
+        String text = valueFormatter.format(size, 0.0);
+        setTextContent(textElem, text);
+        element.appendChild(textElem);
+
+        // SVG elements do not show title attribute, title child is used instead
+        Element titleElem = createSvgElement("title");
+        setTextContent(titleElem, title);
+        element.appendChild(titleElem);
+
+        if (index < partElements.size()) {
+            getParentElementForParts().insertBefore(element, partElements.get(index));
+        } else {
+            getParentElementForParts().appendChild(element);
+        }
+        partElements.add(index, element);
+        renderedParts.add(index, new SvgPart(text, element.getAttribute("class"),
+                rect, textElem, titleElem));
+        updatePartIndexes(index);
+        getToolTip().partInserted(index);
+    }
+
+    @Override
+    public void changePartTitle(int index, String title) {
+        if (index >= 0 && index < renderedParts.size()) {
+            setTextContent(getSvgPart(index).titleElement, title);
+        }
+    }
+
+    @Override
+    public void changePartStyleName(int index, int styleIndex, int parts, String styleName) {
+        super.changePartStyleName(index, styleIndex, parts, styleName);
+        if (index >= 0 && index < renderedParts.size()) {
+            getSvgPart(index).className = partElements.get(index).getAttribute("class");
+        }
+    }
+
+    /**
+     * Parents are walked as nodes, as parentElement is not available for SVG
+     * elements in all browsers.
+     */
+    @Override
+    public int findPartIndex(Element target) {
+        Element root = parent.getElement();
+        Node node = target;
+        while (node != null && node != root) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                String index = Element.as(node).getAttribute(PART_INDEX_ATTRIBUTE);
+                if (index != null && !index.isEmpty()) {
+                    return Integer.parseInt(index);
+                }
+            }
+            node = node.getParentNode();
+        }
+        return -1;
+    }
+
+    @Override
+    public int getPartAbsoluteLeft(int index) {
+        return (int) Math.round(getBoundingClientRect(getPartElement(index), "left"))
+                + Document.get().getScrollLeft();
+    }
+
+    @Override
+    public int getPartAbsoluteRight(int index) {
+        return (int) Math.round(getBoundingClientRect(getPartElement(index), "right"))
+                + Document.get().getScrollLeft();
+    }
+
+    @Override
+    public int getPartAbsoluteTop(int index) {
+        return (int) Math.round(getBoundingClientRect(getPartElement(index), "top"))
+                + Document.get().getScrollTop();
+    }
+
+    @Override
+    public int getPartAbsoluteBottom(int index) {
+        return (int) Math.round(getBoundingClientRect(getPartElement(index), "bottom"))
+                + Document.get().getScrollTop();
+    }
+
+    /**
+     * Minimum width of parts is converted to share of bar width measured in
+     * this update. Parts are updated again when bar is resized, so that the
+     * share matches the new width.
+     */
+    @Override
+    public void updateParts(PartModel model, double minElementWidth, int totalWidth) {
+
+        this.minElementWidth = minElementWidth;
+
+        final int parts = Math.min(model.size(), partElements.size());
+        final double totalSize = model.getTotal();
+
+        if (parts == 0) {
+            return;
+        }
+
+        double minShare = 0.0;
+        if (totalWidth > 0) {
+            minShare = Math.min(minElementWidth / (double) totalWidth, 1.0 / (double) parts);
+        }
+
+        double x = 0.0;
+        for (int i = 0; i < parts; ++i) {
+
+            Element element = partElements.get(i);
+            SvgPart part = getSvgPart(i);
+
+            double size = model.getSize(i);
+
+            String caption = model.getCaption(i);
+            if (caption == null) {
+                caption = valueFormatter.format(i, size, totalSize);
+            }
+
+            if (!caption.equals(part.text)) {
+                setTextContent(part.textElement, caption);
+                part.text = caption;
+            }
+
+            double share;
+            if (totalSize == 0.0) {
+                share = 1.0 / (double) parts;
+            } else {
+                share = minShare + size / totalSize * (1.0 - minShare * (double) parts);
+            }
+
+            // Exact values are written, so that parts never have gaps between
+            double left = x * 100.0;
+            if (part.x != left) {
+                element.setAttribute("x", String.valueOf(left) + "%");
+                part.x = left;
+            }
+            double width = share * 100.0;
+            if (part.unit != Unit.PCT || part.width != width) {
+                setPartElementWidth(element, width, Unit.PCT);
+                part.width = width;
+                part.unit = Unit.PCT;
+            }
+
+            if (!part.className.equals(part.colorsClassName)) {
+                PartColors partColors = themeColors.get(part.className);
+                part.rectElement.setAttribute("fill", partColors.background);
+                part.textElement.setAttribute("fill", partColors.text);
+                part.colorsClassName = part.className;
+            }
+
+            x += share;
+        }
+    }
+
+    @Override
+    public void setPartElementWidth(Element element, double width, Style.Unit unit) {
+        element.setAttribute("width", String.valueOf(width)
+                + (unit == Unit.PCT ? "%" : ""));
+    }
+
+    @Override
+    public void setPartElementValueText(Element element, String text) {
+        // Second child of part is the text element
+        setTextContent(element.getChild(1), text);
+    }
+
+    protected SvgPart getSvgPart(int index) {
+        return (SvgPart) renderedParts.get(index);
+    }
+
+    protected static native Element createSvgElement(String name)
+    /*-{
+        return $doc.createElementNS(@org.vaadin.alump.distributionbar.gwt.client.dom.SvgElementBuilder::SVG_NAMESPACE, name);
+    }-*/;
+
+    private static native void setTextContent(Node node, String text)
+    /*-{
+        node.textContent = text;
+    }-*/;
+
+    private static native double getBoundingClientRect(Element element, String side)
+    /*-{
+        return element.getBoundingClientRect()[side];
+    }-*/;
+}
@@ -0,0 +1,87 @@
+package org.vaadin.alump.distributionbar.gwt.client.dom;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.Style.Position;
+import com.google.gwt.dom.client.Style.Visibility;
+
+/**
+ * Reads colors of part class names from theme, for builders that do not
+ * render parts as styled HTML elements. Colors are read from hidden probe
+ * element and cached, so computed style is read only once per class names.
+ */
+public class ThemeColors {
+
+    /**
+     * Colors of part read from theme
+     */
+    public static class PartColors {
+        public final String background;
+        public final String text;
+
+        public PartColors(String background, String text) {
+            this.background = background;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Hidden element used to read colors of class names from theme
+     */
+    private final Element probe;
+
+    /**
+     * Colors by class names of part
+     */
+    private final Map<String, PartColors> colors = new HashMap<String, PartColors>();
+
+    /**
+     * Constructor
+     *
+     * @param container
+     *            Element where hidden probe element is added, so that theme
+     *            rules of bar apply to it
+     */
+    public ThemeColors(Element container) {
+        probe = Document.get().createDivElement();
+        probe.getStyle().setPosition(Position.ABSOLUTE);
+        probe.getStyle().setVisibility(Visibility.HIDDEN);
+        container.appendChild(probe);
+    }
+
+    /**
+     * Get colors of class names from theme
+     *
+     * @param className
+     *            Class names of part
+     * @return Colors of part
+     */
+    public PartColors get(String className) {
+        PartColors partColors = colors.get(className);
+        if (partColors == null) {
+            probe.setClassName(className);
+            partColors = new PartColors(getComputedStyle(probe, "backgroundColor"),
+                    getComputedStyle(probe, "color"));
+            colors.put(className, partColors);
+        }
+        return partColors;
+    }
+
+    /**
+     * Get computed value of style property
+     *
+     * @param element
+     *            Element attached to document
+     * @param property
+     *            Property in camel case, e.g. "fontSize"
+     * @return Computed value, or null if not available
+     */
+    public static native String getComputedStyle(Element element, String property)
+    /*-{
+        var style = $wnd.getComputedStyle(element, null);
+        return style ? style[property] : null;
+    }-*/;
+}
@@ -7,30 +7,72 @@
 package org.vaadin.alump.distributionbar.gwt.client.dom;
 
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import com.google.gwt.dom.client.Document;
 import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.NativeEvent;
+import com.google.gwt.dom.client.Style;
+import com.google.gwt.dom.client.Style.Display;
 import com.google.gwt.dom.client.Style.Position;
 import com.google.gwt.dom.client.Style.Unit;
+import com.google.gwt.dom.client.Style.Visibility;
 import com.google.gwt.event.dom.client.MouseMoveEvent;
 import com.google.gwt.event.dom.client.MouseMoveHandler;
 import com.google.gwt.event.dom.client.MouseOutEvent;
 import com.google.gwt.event.dom.client.MouseOutHandler;
 import com.google.gwt.event.dom.client.MouseOverEvent;
 import com.google.gwt.event.dom.client.MouseOverHandler;
+import org.vaadin.alump.distributionbar.gwt.client.RenderScheduler;
 
 /**
  * Class that takes care of the tooltip presentation of Distribution Bar. Still
  * under development!
+ *
+ * Presenter does not store tooltips itself: contents are asked by part index
+ * from ElementBuilder, which reads them from model of widget. Presenter only
+ * keeps parsed contents, which are released with release().
  */
 public class ToolTipPresenter implements MouseOverHandler, MouseOutHandler,
         MouseMoveHandler {
 
-    private final HashMap<Element, String> tooltips;
+    /**
+     * Value of currentHoverIndex when no part is hovered
+     */
+    private static final int NO_PART = -1;
+
+    private final ElementBuilder builder;
     private Element currentToolTip;
-    private Element currentHoverElement;
+    private int currentHoverIndex = NO_PART;
+
+    /**
+     * Tooltip element shared by all presenters of page
+     */
+    private static Element pooledToolTip;
+
+    /**
+     * Presenter currently showing the shared tooltip element
+     */
+    private static ToolTipPresenter pooledToolTipOwner;
+
+    /**
+     * Tooltip content parsed to DOM
+     */
+    private static class ParsedContent {
+        private final String content;
+        private final Element fragment;
+
+        public ParsedContent(String content, Element fragment) {
+            this.content = content;
+            this.fragment = fragment;
+        }
+    }
+
+    /**
+     * Parsed tooltip contents by part index, kept until content changes
+     */
+    private final HashMap<Integer, ParsedContent> parsedContents = new HashMap<Integer, ParsedContent>();
 
     //private final Logger LOGGER = Logger.getLogger(ToolTipPresenter.class.getName());
 
@@ -40,8 +82,27 @@ public class ToolTipPresenter implements MouseOverHandler, MouseOutHandler,
 
     private TooltipClassNameProvider classNameProvider;
 
-    public ToolTipPresenter() {
-        tooltips = new HashMap<Element, String>();
+    /**
+     * Interface for loaders of lazy loaded tooltips
+     */
+    public interface TooltipLoader {
+        /**
+         * Get content of tooltip. If content is not yet available, it should
+         * be requested and given later to tooltipLoaded.
+         * @param index Index of part
+         * @return Content of tooltip in XHTML, or null if not yet available
+         */
+        String getTooltip(int index);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param builder
+     *            Builder used to find parts and their tooltips
+     */
+    public ToolTipPresenter(ElementBuilder builder) {
+        this.builder = builder;
     }
 
     public void setTooltipClassNameProvider(TooltipClassNameProvider provider) {
@@ -49,102 +110,271 @@ public class ToolTipPresenter implements MouseOverHandler, MouseOutHandler,
     }
 
     /**
-     * Change tool tip content
-     * 
-     * @param element
-     *            Element which tooltip is changed
+     * Called when content of lazy loaded tooltip is available
+     *
+     * @param index
+     *            Index of part
      * @param content
-     *            New content in XHTML
+     *            Content of tooltip in XHTML
      */
-    public void setToolTip(Element element, String content) {
-        tooltips.put(element, content);
+    public void tooltipLoaded(int index, String content) {
+        if (currentHoverIndex == index && currentToolTip == null) {
+            generateTooltip();
+        }
     }
 
     /**
-     * Remove defined tooltip
-     * 
-     * @param element
-     *            Element containing the tooltip
+     * Get content of tooltip of part
+     *
+     * @param index
+     *            Index of part
+     * @return Content of tooltip, or null if not available
      */
-    public void removeToolTip(Element element) {
-        if (currentHoverElement == element) {
+    protected String getToolTipContent(int index) {
+        String content = builder.getPartToolTip(index);
+        if (content != null && content.isEmpty()) {
+            return null;
+        }
+        return content;
+    }
+
+    /**
+     * Called when tooltip of part has changed
+     *
+     * @param index
+     *            Index of part
+     */
+    public void toolTipChanged(int index) {
+        if (currentHoverIndex == index && !builder.hasPartToolTip(index)) {
             removeCurrentToolTip();
         }
-        tooltips.remove(element);
     }
 
     /**
-     * Clear all tool tips defined. Useful if distribution bar is restructured.
+     * Called when part has been inserted. Parsed contents and hovered part
+     * are moved to the new indexes of parts.
+     *
+     * @param index
+     *            Index of inserted part
      */
-    public void clearAllToolTips() {
-        removeCurrentToolTip();
-        tooltips.clear();
+    public void partInserted(int index) {
+        HashMap<Integer, ParsedContent> shifted = new HashMap<Integer, ParsedContent>();
+        for (Map.Entry<Integer, ParsedContent> entry : parsedContents.entrySet()) {
+            int key = entry.getKey();
+            shifted.put(key >= index ? key + 1 : key, entry.getValue());
+        }
+        replaceParsedContents(shifted);
+
+        if (currentHoverIndex != NO_PART && currentHoverIndex >= index) {
+            ++currentHoverIndex;
+        }
+        partsMoved();
     }
 
-    public boolean hasToolTipForElement(Element element) {
-        return tooltips.containsKey(element);
+    /**
+     * Called when part has been removed. Tooltip is hidden if removed part
+     * was hovered.
+     *
+     * @param index
+     *            Index of removed part
+     */
+    public void partRemoved(int index) {
+        HashMap<Integer, ParsedContent> shifted = new HashMap<Integer, ParsedContent>();
+        for (Map.Entry<Integer, ParsedContent> entry : parsedContents.entrySet()) {
+            int key = entry.getKey();
+            if (key != index) {
+                shifted.put(key > index ? key - 1 : key, entry.getValue());
+            }
+        }
+        replaceParsedContents(shifted);
+
+        if (currentHoverIndex == index) {
+            removeCurrentToolTip();
+        } else if (currentHoverIndex > index) {
+            --currentHoverIndex;
+        }
+        partsMoved();
+    }
+
+    /**
+     * Called when part has been moved to new index
+     *
+     * @param from
+     *            Old index of part
+     * @param to
+     *            New index of part
+     */
+    public void partMoved(int from, int to) {
+        HashMap<Integer, ParsedContent> shifted = new HashMap<Integer, ParsedContent>();
+        for (Map.Entry<Integer, ParsedContent> entry : parsedContents.entrySet()) {
+            shifted.put(movedIndex(entry.getKey(), from, to), entry.getValue());
+        }
+        replaceParsedContents(shifted);
+
+        if (currentHoverIndex != NO_PART) {
+            currentHoverIndex = movedIndex(currentHoverIndex, from, to);
+        }
+        partsMoved();
+    }
+
+    private static int movedIndex(int index, int from, int to) {
+        if (index == from) {
+            return to;
+        } else if (from < to && index > from && index <= to) {
+            return index - 1;
+        } else if (to < from && index >= to && index < from) {
+            return index + 1;
+        }
+        return index;
+    }
+
+    private void replaceParsedContents(HashMap<Integer, ParsedContent> shifted) {
+        parsedContents.clear();
+        parsedContents.putAll(shifted);
+    }
+
+    /**
+     * Position of shown tooltip is updated, as hovered part might have moved
+     */
+    private void partsMoved() {
+        if (currentToolTip != null) {
+            changeTooltipPosition();
+        }
+    }
+
+    /**
+     * Hide tooltip and release all parsed contents. Called when widget is
+     * detached and when root element is initialized again.
+     */
+    public void release() {
+        removeCurrentToolTip();
+        parsedContents.clear();
     }
 
     /*
      * (non-Javadoc)
-     * 
+     *
      * @see
      * com.google.gwt.event.dom.client.MouseOverHandler#onMouseOver(com.google
      * .gwt.event.dom.client.MouseOverEvent)
      */
     public void onMouseOver(MouseOverEvent event) {
 
-        Element target = Element.as(event.getNativeEvent().getEventTarget());
+        int index = findMatchingIndex(event.getNativeEvent());
 
-        if (target == currentHoverElement) {
+        if (index == currentHoverIndex) {
             return;
-        } else if (hasToolTipForElement(target) == false) {
+        } else if (index == NO_PART) {
             removeCurrentToolTip();
             return;
         }
 
         removeCurrentToolTip();
-        currentHoverElement = target;
+        currentHoverIndex = index;
         generateTooltip();
 
     }
 
     /**
-     * Generate new tooltip to document. Make sure currentHoverElement is set
+     * Generate new tooltip to document. Make sure currentHoverIndex is set
      * before this is called.
      */
     protected void generateTooltip() {
 
-        currentToolTip = Document.get().createDivElement();
+        String content = getToolTipContent(currentHoverIndex);
+        if (content == null) {
+            // Lazy loaded content will be shown when available
+            return;
+        }
+
+        currentToolTip = acquireToolTip();
         currentToolTip.setClassName("alump-dbar-tooltip");
 
         if(classNameProvider != null) {
             currentToolTip.addClassName(classNameProvider.getClassNames());
         }
 
-        currentToolTip.setInnerHTML(tooltips.get(currentHoverElement));
+        showContent(currentHoverIndex, content);
+
+        // Hidden until positioned in the next frame
+        currentToolTip.getStyle().setVisibility(Visibility.HIDDEN);
+        currentToolTip.getStyle().clearDisplay();
 
-        Document.get().getBody().appendChild(currentToolTip);
+        changeTooltipPosition();
+    }
 
-        currentToolTip.getStyle().setPosition(Position.ABSOLUTE);
+    /**
+     * Get tooltip element shared by all presenters of page. If other
+     * presenter is using it, its tooltip is removed.
+     *
+     * @return Tooltip element attached to document
+     */
+    protected Element acquireToolTip() {
+        if (pooledToolTipOwner != null && pooledToolTipOwner != this) {
+            pooledToolTipOwner.removeCurrentToolTip();
+        }
 
-        changeTooltipPosition(currentHoverElement);
+        if (pooledToolTip == null) {
+            pooledToolTip = Document.get().createDivElement();
+            pooledToolTip.getStyle().setPosition(Position.ABSOLUTE);
+            pooledToolTip.getStyle().setDisplay(Display.NONE);
+        }
+        if (pooledToolTip.getParentElement() == null) {
+            Document.get().getBody().appendChild(pooledToolTip);
+        }
+
+        pooledToolTipOwner = this;
+        return pooledToolTip;
+    }
+
+    /**
+     * Show content of tooltip of part in current tooltip. Content is parsed
+     * only if it has changed since it was last shown.
+     *
+     * @param index
+     *            Index of part
+     * @param content
+     *            Content of tooltip in XHTML
+     */
+    protected void showContent(int index, String content) {
+        ParsedContent parsed = parsedContents.get(index);
+        if (parsed == null || !parsed.content.equals(content)) {
+            Element fragment = Document.get().createDivElement();
+            fragment.setInnerHTML(content);
+            parsed = new ParsedContent(content, fragment);
+            parsedContents.put(index, parsed);
+        }
+
+        if (currentToolTip.getFirstChildElement() != parsed.fragment) {
+            currentToolTip.removeAllChildren();
+            currentToolTip.appendChild(parsed.fragment);
+        }
     }
 
     /**
-     * Removes current tooltip from document
+     * Hides current tooltip. Tooltip element is kept for the next tooltip.
      */
     protected void removeCurrentToolTip() {
+        RenderScheduler.get().cancel(positioner);
         if (currentToolTip != null) {
-            currentToolTip.removeFromParent();
+            Style style = currentToolTip.getStyle();
+            style.setDisplay(Display.NONE);
+            // Without position next tooltip will not slide from this position
+            style.clearLeft();
+            style.clearTop();
+            style.clearBottom();
+            currentToolTip.removeAllChildren();
             currentToolTip = null;
-            currentHoverElement = null;
         }
+        if (pooledToolTipOwner == this) {
+            pooledToolTipOwner = null;
+        }
+        currentHoverIndex = NO_PART;
     }
 
     /*
      * (non-Javadoc)
-     * 
+     *
      * @see
      * com.google.gwt.event.dom.client.MouseOutHandler#onMouseOut(com.google
      * .gwt.event.dom.client.MouseOutEvent)
@@ -157,81 +387,105 @@ public class ToolTipPresenter implements MouseOverHandler, MouseOutHandler,
     }
 
     /**
-     * Adds isOrHasChild aspect to HashMap search
-     * 
-     * @param target
-     *            Element searched (will accept if target is child of defined
-     *            element).
-     * @return Defined element or null if not found.
+     * Find index of part with tooltip under mouse event
+     *
+     * @param event
+     *            Mouse event
+     * @return Index of part or NO_PART if not found.
      */
-    protected Element findMathingElement(Element target) {
-        if (tooltips.containsKey(target)) {
-            return target;
-        } else {
-            Iterator<Element> iter = tooltips.keySet().iterator();
-            while (iter.hasNext()) {
-                Element element = iter.next();
-                if (element.isOrHasChild(target)) {
-                    return element;
-                }
-            }
+    protected int findMatchingIndex(NativeEvent event) {
+        int index = builder.findPartIndex(event);
+        if (index >= 0 && builder.hasPartToolTip(index)) {
+            return index;
         }
+        return NO_PART;
+    }
 
-        return null;
+    /**
+     * Position current tooltip next to current hover element in the next
+     * animation frame
+     */
+    protected void changeTooltipPosition() {
+        RenderScheduler.get().schedule(positioner);
     }
 
-    private void changeTooltipPosition(Element element) {
+    /**
+     * Positions tooltip. Positions are read in measure phase and written in
+     * render phase, so that positioning does not force extra layouts.
+     */
+    private final RenderScheduler.Renderable positioner = new RenderScheduler.Renderable() {
+
+        private Element measuredToolTip;
+        private int left;
+        private boolean below;
+        private int vertical;
+
+        @Override
+        public void measure() {
+            measuredToolTip = null;
+            Element element = builder.getPartElement(currentHoverIndex);
+            if (currentToolTip == null || element == null) {
+                return;
+            }
+            measuredToolTip = currentToolTip;
+
+            left = builder.getPartAbsoluteLeft(currentHoverIndex);
+            int absoluteRight = builder.getPartAbsoluteRight(currentHoverIndex);
+            int right = Document.get().getClientWidth() - absoluteRight;
 
-        int left = element.getAbsoluteLeft();
-        int right = Document.get().getClientWidth()
-                - element.getAbsoluteRight();
+            if (left > right) {
+                left = absoluteRight - currentToolTip.getOffsetWidth();
+            }
 
-        if (element.getAbsoluteLeft() <= right) {
-            currentToolTip.getStyle().setLeft(left, Unit.PX);
-        } else {
-            int width = currentToolTip.getOffsetWidth();
+            int absoluteTop = builder.getPartAbsoluteTop(currentHoverIndex);
+            int absoluteBottom = builder.getPartAbsoluteBottom(currentHoverIndex);
+            int top = absoluteTop;
+            int bottom = Document.get().getClientHeight() - absoluteBottom;
 
-            currentToolTip.getStyle().setLeft(
-                    element.getAbsoluteRight() - width, Unit.PX);
+            below = top <= bottom;
+            vertical = (below ? top : bottom) + (absoluteBottom - absoluteTop);
         }
 
-        int top = element.getAbsoluteTop();
-        int bottom = Document.get().getClientHeight()
-                - element.getAbsoluteBottom();
+        @Override
+        public void render() {
+            if (measuredToolTip == null || measuredToolTip != currentToolTip) {
+                return;
+            }
 
-        if (top <= bottom) {
-            currentToolTip.getStyle().clearBottom();
-            currentToolTip.getStyle().setTop(top + element.getOffsetHeight(),
-                    Unit.PX);
-        } else {
-            currentToolTip.getStyle().clearTop();
-            currentToolTip.getStyle().setBottom(
-                    bottom + element.getOffsetHeight(), Unit.PX);
+            Style style = currentToolTip.getStyle();
+            style.setLeft(left, Unit.PX);
+            if (below) {
+                style.clearBottom();
+                style.setTop(vertical, Unit.PX);
+            } else {
+                style.clearTop();
+                style.setBottom(vertical, Unit.PX);
+            }
+            style.clearVisibility();
         }
-    }
+    };
 
     /*
      * (non-Javadoc)
-     * 
+     *
      * @see
      * com.google.gwt.event.dom.client.MouseMoveHandler#onMouseMove(com.google
      * .gwt.event.dom.client.MouseMoveEvent)
      */
     public void onMouseMove(MouseMoveEvent event) {
-        Element target = Element.as(event.getNativeEvent().getEventTarget());
-
-        if (target != currentHoverElement) {
-            currentHoverElement = findMathingElement(target);
-            if (currentHoverElement != null) {
-                if (currentToolTip == null) {
-                    generateTooltip();
-                } else {
-                    changeTooltipPosition(currentHoverElement);
-                    currentToolTip.setInnerHTML(tooltips
-                            .get(currentHoverElement));
-                }
+        int index = findMatchingIndex(event.getNativeEvent());
+        if (index == NO_PART) {
+            removeCurrentToolTip();
+        } else if (index != currentHoverIndex) {
+            String content = getToolTipContent(index);
+            if (currentToolTip != null && content != null) {
+                currentHoverIndex = index;
+                showContent(index, content);
+                changeTooltipPosition();
             } else {
                 removeCurrentToolTip();
+                currentHoverIndex = index;
+                generateTooltip();
             }
         }
 
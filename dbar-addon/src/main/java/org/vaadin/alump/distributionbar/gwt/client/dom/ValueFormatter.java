@@ -0,0 +1,206 @@
+package org.vaadin.alump.distributionbar.gwt.client.dom;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gwt.i18n.client.NumberFormat;
+import org.vaadin.alump.distributionbar.gwt.client.shared.ValueFormat;
+
+/**
+ * Formats sizes of parts to text shown inside parts. Formatted texts are
+ * cached per part, so text is only formatted again when size of part or sum
+ * of sizes changes.
+ */
+public class ValueFormatter {
+
+    private static final String[] COMPACT_UNITS = { "", "k", "M", "G", "T" };
+
+    /**
+     * Default pattern of ABSOLUTE format
+     */
+    public static final String ABSOLUTE_PATTERN = "#,##0.##";
+
+    /**
+     * Default pattern of COMPACT format
+     */
+    public static final String COMPACT_PATTERN = "0.#";
+
+    /**
+     * Number format used to format and parse values
+     */
+    protected interface NumberFormatter {
+        String format(double value);
+
+        double parse(String text) throws NumberFormatException;
+    }
+
+    private final ValueFormat format;
+    private final String pattern;
+    private NumberFormatter numberFormat;
+
+    private static class CachedText {
+        private double size;
+        private double total;
+        private String text;
+    }
+
+    private final List<CachedText> cache = new ArrayList<CachedText>();
+
+    /**
+     * Create new formatter
+     * @param format Format used
+     * @param pattern Number pattern used (see NumberFormat), null to use default of format
+     */
+    public ValueFormatter(ValueFormat format, String pattern) {
+        this.format = format == null ? ValueFormat.ABSOLUTE : format;
+        this.pattern = pattern;
+    }
+
+    /**
+     * Create number format of formatter. Called when the first value is
+     * formatted.
+     * @return Number format using pattern, or default of format if pattern is not given
+     */
+    protected NumberFormatter createNumberFormatter() {
+        final NumberFormat numberFormat;
+        if (pattern != null) {
+            numberFormat = NumberFormat.getFormat(pattern);
+        } else if (format == ValueFormat.PERCENTAGE) {
+            numberFormat = NumberFormat.getPercentFormat();
+        } else if (format == ValueFormat.COMPACT) {
+            numberFormat = NumberFormat.getFormat(COMPACT_PATTERN);
+        } else {
+            numberFormat = NumberFormat.getFormat(ABSOLUTE_PATTERN);
+        }
+
+        return new NumberFormatter() {
+            @Override
+            public String format(double value) {
+                return numberFormat.format(value);
+            }
+
+            @Override
+            public double parse(String text) throws NumberFormatException {
+                return numberFormat.parse(text);
+            }
+        };
+    }
+
+    private NumberFormatter getNumberFormat() {
+        if (numberFormat == null) {
+            numberFormat = createNumberFormatter();
+        }
+        return numberFormat;
+    }
+
+    /**
+     * Get format used
+     * @return Format used
+     */
+    public ValueFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Get number pattern used
+     * @return Pattern used, null if default of format is used
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Check if formatter uses given format and pattern
+     * @param format Format compared
+     * @param pattern Pattern compared
+     * @return true if formatter uses given format and pattern
+     */
+    public boolean isFormat(ValueFormat format, String pattern) {
+        if (this.format != (format == null ? ValueFormat.ABSOLUTE : format)) {
+            return false;
+        } else if (this.pattern == null) {
+            return pattern == null;
+        } else {
+            return this.pattern.equals(pattern);
+        }
+    }
+
+    /**
+     * Get formatted text of part, formatting it only if values have changed
+     * @param index Index of part
+     * @param size Size of part
+     * @param total Sum of sizes of all parts
+     * @return Formatted text
+     */
+    public String format(int index, double size, double total) {
+        while (cache.size() <= index) {
+            cache.add(null);
+        }
+
+        CachedText cached = cache.get(index);
+        if (cached == null) {
+            cached = new CachedText();
+            cache.set(index, cached);
+        } else if (cached.text != null && cached.size == size
+                && (format != ValueFormat.PERCENTAGE || cached.total == total)) {
+            return cached.text;
+        }
+
+        cached.size = size;
+        cached.total = total;
+        cached.text = format(size, total);
+        return cached.text;
+    }
+
+    /**
+     * Format text without caching
+     * @param size Size of part
+     * @param total Sum of sizes of all parts
+     * @return Formatted text
+     */
+    public String format(double size, double total) {
+        NumberFormatter numberFormat = getNumberFormat();
+        switch (format) {
+        case PERCENTAGE:
+            return numberFormat.format(total > 0.0 ? size / total : 0.0);
+        case COMPACT:
+            int unit = 0;
+            double value = size;
+            while (Math.abs(value) >= 1000.0 && unit < COMPACT_UNITS.length - 1) {
+                value /= 1000.0;
+                ++unit;
+            }
+            String text = numberFormat.format(value);
+            // Rounding can reach the next unit, e.g. 999.96k is shown as 1M instead of 1000k
+            if (unit < COMPACT_UNITS.length - 1 && Math.abs(parseFormatted(numberFormat, text)) >= 1000.0) {
+                value /= 1000.0;
+                ++unit;
+                text = numberFormat.format(value);
+            }
+            return text + COMPACT_UNITS[unit];
+        default:
+            return numberFormat.format(size);
+        }
+    }
+
+    /**
+     * Read value back from text formatted with number format
+     * @param numberFormat Number format used
+     * @param text Formatted text
+     * @return Value shown in text, 0.0 if text can not be parsed
+     */
+    private static double parseFormatted(NumberFormatter numberFormat, String text) {
+        try {
+            return numberFormat.parse(text);
+        } catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+
+    /**
+     * Forget cached texts of parts
+     */
+    public void clearCache() {
+        cache.clear();
+    }
+}
@@ -0,0 +1,31 @@
+package org.vaadin.alump.distributionbar.gwt.client.shared;
+
+import com.vaadin.shared.communication.ClientRpc;
+
+/**
+ * Used to send incremental changes of parts without syncing the full state
+ */
+public interface DistributionBarClientRpc extends ClientRpc {
+
+    /**
+     * Update sizes of parts
+     * @param indexes Indexes of parts changed
+     * @param sizes New sizes of parts, in same order as indexes
+     */
+    void updateSizes(int[] indexes, double[] sizes);
+
+    /**
+     * Update captions of parts
+     * @param indexes Indexes of parts changed
+     * @param captions New captions of parts (null to show value), in same order as indexes
+     */
+    void updateCaptions(int[] indexes, String[] captions);
+
+    /**
+     * Response to lazy loaded tooltip request
+     * @param index Index of part, as given in request
+     * @param version Tooltip version of part, -1 if request was ignored and content should not be cached
+     * @param content Content of tooltip in XHTML (empty to not show tooltip)
+     */
+    void setTooltip(int index, int version, String content);
+}
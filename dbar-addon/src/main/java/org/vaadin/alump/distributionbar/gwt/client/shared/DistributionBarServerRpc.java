@@ -5,4 +5,25 @@ import com.vaadin.shared.communication.ServerRpc;
 
 public interface DistributionBarServerRpc extends ServerRpc {
 	void onItemClicked(int index, MouseEventDetails mouseEventDetails);
+
+	/**
+	 * Called when part aggregated from multiple parts is clicked
+	 * @param firstIndex Index of first part aggregated
+	 * @param lastIndex Index of last part aggregated
+	 * @param mouseEventDetails Details of click
+	 */
+	void onItemRangeClicked(int firstIndex, int lastIndex, MouseEventDetails mouseEventDetails);
+
+	/**
+	 * Request lazy loaded tooltip of part
+	 * @param index Index of part
+	 */
+	void onTooltipRequested(int index);
+
+	/**
+	 * Called when bar becomes visible or hidden to user, if visibility is
+	 * reported
+	 * @param visible true if bar is in viewport and document is visible
+	 */
+	void onVisibilityChanged(boolean visible);
 }
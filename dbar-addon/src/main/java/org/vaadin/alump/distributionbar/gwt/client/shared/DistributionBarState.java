@@ -2,17 +2,100 @@ package org.vaadin.alump.distributionbar.gwt.client.shared;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.vaadin.shared.AbstractComponentState;
 
 @SuppressWarnings("serial")
 public class DistributionBarState extends AbstractComponentState {
 
+    /**
+     * Value used in string reference columns when string is null
+     */
+    public static final int NO_STRING = -1;
+
 	public boolean sendClicks = false;
-    private List<Part> parts = new ArrayList<Part>();
     public boolean zeroVisible = true;
     public double minWidth = 30.0;
+    public boolean flexLayout = false;
+
+    /**
+     * Consecutive parts narrower than this (in pixels) are shown as one
+     * aggregated part. Zero to disable aggregation.
+     */
+    public double aggregateWidth = 0.0;
+
+    /**
+     * Duration (in milliseconds) over which client interpolates sizes of parts
+     * to new values. Zero to apply new sizes immediately.
+     */
+    public int animationDuration = 0;
+
+    /**
+     * If true client tracks visibility of bar, does not render it while
+     * hidden, and reports visibility changes to server
+     */
+    public boolean reportVisibility = false;
+
+    /**
+     * How bar is rendered on client side
+     */
+    public RenderMode renderMode = RenderMode.DOM;
+
+    /**
+     * If true tooltips of parts without tooltip content are requested from server
+     */
+    public boolean lazyTooltips = false;
+
+    /**
+     * Template used for tooltips of parts without tooltip content, null if
+     * not used. Placeholders {name}, {value}, {pct}, {total} and {index} are
+     * replaced by client.
+     */
+    public String tooltipTemplate = null;
+
+    /**
+     * Template used for captions of parts without caption, null if not used.
+     * Supports same placeholders as tooltipTemplate.
+     */
+    public String captionTemplate = null;
+
+    /**
+     * How sizes are shown in parts without caption
+     */
+    public ValueFormat valueFormat = ValueFormat.ABSOLUTE;
+
+    /**
+     * Number pattern used to format sizes, null to use default of value format
+     */
+    public String valuePattern = null;
+
+    /**
+     * Parts are stored in columns, so that each column is synced separately
+     * and repeated strings are only sent once. Use writeParts and readParts
+     * to access parts.
+     */
+    public double[] sizes = new double[0];
+
+    /**
+     * String table referenced by caption, title, tooltip and style name
+     * columns
+     */
+    public List<String> strings = new ArrayList<String>();
+
+    public int[] captions = new int[0];
+    public int[] titles = new int[0];
+    public int[] tooltips = new int[0];
+    public int[] styleNames = new int[0];
+    public int[] names = new int[0];
+    public int[] keys = new int[0];
+
+    /**
+     * Version of lazy loaded tooltip of each part. Changed when tooltip has to be reloaded.
+     */
+    public int[] tooltipVersions = new int[0];
 
     /**
      * Internal storage class for part details
@@ -24,6 +107,9 @@ public class DistributionBarState extends AbstractComponentState {
         private String title;
         private String tooltip;
         private String styleName;
+        private String name;
+        private String key;
+        private int tooltipVersion;
 
         public Part() {
             title = new String();
@@ -35,6 +121,17 @@ public class DistributionBarState extends AbstractComponentState {
             title = new String();
         }
 
+        public Part(Part other) {
+            size = other.size;
+            caption = other.caption;
+            title = other.title;
+            tooltip = other.tooltip;
+            styleName = other.styleName;
+            name = other.name;
+            key = other.key;
+            tooltipVersion = other.tooltipVersion;
+        }
+
         public void setSize(double size) {
             this.size = size;
         }
@@ -74,13 +171,149 @@ public class DistributionBarState extends AbstractComponentState {
         public void setStyleName(String styleName) {
             this.styleName = styleName;
         }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public void setKey(String key) {
+            this.key = key;
+        }
+
+        public int getTooltipVersion() {
+            return tooltipVersion;
+        }
+
+        public void setTooltipVersion(int tooltipVersion) {
+            this.tooltipVersion = tooltipVersion;
+        }
+    }
+
+    /**
+     * Number of parts stored to state
+     * @return Number of parts
+     */
+    public int partCount() {
+        return sizes.length;
+    }
+
+    /**
+     * Write parts to columns of state
+     * @param parts Parts written
+     */
+    public void writeParts(List<Part> parts) {
+        final int count = parts.size();
+        sizes = new double[count];
+        captions = new int[count];
+        titles = new int[count];
+        tooltips = new int[count];
+        styleNames = new int[count];
+        names = new int[count];
+        keys = new int[count];
+        tooltipVersions = new int[count];
+        strings = new ArrayList<String>();
+
+        Map<String, Integer> lookup = new HashMap<String, Integer>();
+        for (int i = 0; i < count; ++i) {
+            Part part = parts.get(i);
+            sizes[i] = part.getSize();
+            captions[i] = toStringReference(part.getCaption(), lookup);
+            titles[i] = toStringReference(part.getTitle(), lookup);
+            tooltips[i] = toStringReference(part.getTooltip(), lookup);
+            styleNames[i] = toStringReference(part.getStyleName(), lookup);
+            names[i] = toStringReference(part.getName(), lookup);
+            keys[i] = toStringReference(part.getKey(), lookup);
+            tooltipVersions[i] = part.getTooltipVersion();
+        }
+    }
+
+    private int toStringReference(String value, Map<String, Integer> lookup) {
+        if (value == null) {
+            return NO_STRING;
+        }
+
+        Integer reference = lookup.get(value);
+        if (reference == null) {
+            reference = strings.size();
+            strings.add(value);
+            lookup.put(value, reference);
+        }
+        return reference;
+    }
+
+    private String fromStringReference(int reference) {
+        if (reference == NO_STRING) {
+            return null;
+        }
+        return strings.get(reference);
     }
 
-    public List<Part> getParts() {
+    /**
+     * Read part from columns of state
+     * @param index Index of part
+     * @return New part instance with values of part
+     */
+    public Part readPart(int index) {
+        Part part = new Part();
+        part.setSize(sizes[index]);
+        part.setCaption(fromStringReference(captions[index]));
+        part.setTitle(fromStringReference(titles[index]));
+        part.setTooltip(fromStringReference(tooltips[index]));
+        part.setStyleName(fromStringReference(styleNames[index]));
+        part.setName(fromStringReference(names[index]));
+        part.setKey(fromStringReference(keys[index]));
+        part.setTooltipVersion(tooltipVersions[index]);
+        return part;
+    }
+
+    /**
+     * Read all parts from columns of state
+     * @return New list of parts
+     */
+    public List<Part> readParts() {
+        List<Part> parts = new ArrayList<Part>(partCount());
+        for (int i = 0; i < partCount(); ++i) {
+            parts.add(readPart(i));
+        }
         return parts;
     }
 
-    public void setParts(List<Part> parts) {
-        this.parts = parts;
+    /**
+     * Change size of part stored to state
+     * @param index Index of part
+     * @param size New size
+     */
+    public void changeSize(int index, double size) {
+        sizes[index] = size;
+    }
+
+    /**
+     * Change caption of part stored to state. New captions are added to the
+     * end of string table, so references of other columns stay valid. Server
+     * writes all parts again after a number of incremental captions, which
+     * replaces the grown string table.
+     * @param index Index of part
+     * @param caption New caption (null to show value)
+     */
+    public void changeCaption(int index, String caption) {
+        if (caption == null) {
+            captions[index] = NO_STRING;
+            return;
+        }
+
+        int reference = strings.indexOf(caption);
+        if (reference < 0) {
+            reference = strings.size();
+            strings.add(caption);
+        }
+        captions[index] = reference;
     }
 }
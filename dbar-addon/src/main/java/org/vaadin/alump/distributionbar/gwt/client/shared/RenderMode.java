@@ -0,0 +1,22 @@
+package org.vaadin.alump.distributionbar.gwt.client.shared;
+
+/**
+ * How distribution bar is rendered on client side
+ */
+public enum RenderMode {
+    /**
+     * Each part is rendered as its own element, styled with theme
+     */
+    DOM,
+    /**
+     * All parts are drawn to single canvas element. Colors are read from
+     * theme, but other styling of parts is not supported.
+     */
+    CANVAS,
+    /**
+     * All parts are rendered inside single inline SVG element, and resized by
+     * browser. Colors are read from theme, but other styling of parts is not
+     * supported.
+     */
+    SVG
+}
@@ -0,0 +1,20 @@
+package org.vaadin.alump.distributionbar.gwt.client.shared;
+
+/**
+ * How size of part is presented inside part, when part does not have caption
+ */
+public enum ValueFormat {
+    /**
+     * Size of part is shown as number in format of locale, with at most two
+     * decimals (e.g. 1,234.5)
+     */
+    ABSOLUTE,
+    /**
+     * Size of part is shown as percentage of sum of all sizes
+     */
+    PERCENTAGE,
+    /**
+     * Size of part is shown with compact units (e.g. 1.2k, 3.4M)
+     */
+    COMPACT
+}
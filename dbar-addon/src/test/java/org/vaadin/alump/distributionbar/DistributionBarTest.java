@@ -0,0 +1,480 @@
+package org.vaadin.alump.distributionbar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.vaadin.alump.distributionbar.gwt.client.shared.DistributionBarServerRpc;
+
+import com.vaadin.server.ClientMethodInvocation;
+import com.vaadin.shared.MouseEventDetails;
+
+public class DistributionBarTest {
+
+    private static final double DELTA = 0.0;
+
+    /**
+     * Distribution bar counting how many times it is marked dirty
+     */
+    @SuppressWarnings("serial")
+    private static class CountingDistributionBar extends DistributionBar {
+        private int dirtyCount;
+
+        public CountingDistributionBar(double[] sizes) {
+            super(sizes);
+        }
+
+        @Override
+        public void markAsDirty() {
+            ++dirtyCount;
+            super.markAsDirty();
+        }
+    }
+
+    private static double[] getSizes(DistributionBar bar) {
+        double[] sizes = new double[bar.getNumberOfParts()];
+        for (int i = 0; i < sizes.length; ++i) {
+            sizes[i] = bar.getPartSize(i);
+        }
+        return sizes;
+    }
+
+    private static ClientMethodInvocation findCall(List<ClientMethodInvocation> calls, String methodName) {
+        for (ClientMethodInvocation call : calls) {
+            if (call.getMethodName().equals(methodName)) {
+                return call;
+            }
+        }
+        return null;
+    }
+
+    private static DistributionBarServerRpc getServerRpc(DistributionBar bar) {
+        return (DistributionBarServerRpc) bar.getRpcManager(DistributionBarServerRpc.class.getName())
+                .getImplementation();
+    }
+
+    private static DistributionBar createKeyedBar() {
+        DistributionBar bar = new DistributionBar(1);
+        bar.addPart("a", 1.0).addPart("b", 2.0).addPart("c", 3.0);
+        bar.beforeClientResponse(true);
+        bar.retrievePendingRpcCalls();
+        return bar;
+    }
+
+    @Test
+    public void testUpdateAppliesAllChanges() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0, 3.0 });
+
+        bar.update(editor -> editor.setPartSize(0, 10.0).setPartSize(2, 30.0, "thirty").setPartName(1, "two"));
+
+        assertArrayEquals(new double[] { 10.0, 2.0, 30.0 }, getSizes(bar), DELTA);
+        assertEquals("thirty", bar.getPartCaption(2));
+        assertEquals("two", bar.getPartName(1));
+    }
+
+    @Test
+    public void testUpdateIsAllOrNothing() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0, 3.0 });
+
+        try {
+            bar.update(editor -> editor.setPartSize(0, 10.0).setPartCaption(1, "two").setPartSize(2, -1.0));
+            fail("Negative size should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertArrayEquals(new double[] { 1.0, 2.0, 3.0 }, getSizes(bar), DELTA);
+        assertNull(bar.getPartCaption(1));
+    }
+
+    @Test
+    public void testUpdateRejectsNaN() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0 });
+
+        try {
+            bar.update(editor -> editor.setPartSize(0, 5.0).setPartSize(1, Double.NaN));
+            fail("NaN size should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertArrayEquals(new double[] { 1.0, 2.0 }, getSizes(bar), DELTA);
+    }
+
+    @Test
+    public void testUpdateValidatesBeforeMarkingDirty() {
+        CountingDistributionBar bar = new CountingDistributionBar(new double[] { 1.0, 2.0 });
+        bar.dirtyCount = 0;
+
+        try {
+            bar.update(editor -> editor.setPartSize(0, 5.0).setPartSize(1, -2.0));
+            fail("Negative size should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertEquals(0, bar.dirtyCount);
+    }
+
+    @Test
+    public void testSetPartSizesRejectsNull() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0 });
+        Map<Integer, Double> sizes = new LinkedHashMap<Integer, Double>();
+        sizes.put(0, 5.0);
+        sizes.put(1, null);
+
+        try {
+            bar.setPartSizes(sizes);
+            fail("Null size should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertArrayEquals(new double[] { 1.0, 2.0 }, getSizes(bar), DELTA);
+    }
+
+    @Test
+    public void testUnchangedValuesDoNotMarkDirty() {
+        CountingDistributionBar bar = new CountingDistributionBar(new double[] { 1.0, 2.0 });
+        bar.setPartCaption(1, "two");
+        bar.beforeClientResponse(true);
+        bar.dirtyCount = 0;
+
+        bar.setPartSize(0, 1.0);
+        bar.setPartCaption(1, "two");
+        bar.updatePartSizes(new double[] { 1.0, 2.0 });
+        bar.update(editor -> editor.setPartSize(0, 1.0).setPartName(1, null));
+
+        assertEquals(0, bar.dirtyCount);
+
+        bar.setPartSize(0, 1.5);
+
+        assertEquals(1, bar.dirtyCount);
+    }
+
+    @Test
+    public void testSizeEpsilon() {
+        CountingDistributionBar bar = new CountingDistributionBar(new double[] { 1.0, 2.0 });
+        bar.setSizeEpsilon(0.5);
+        bar.dirtyCount = 0;
+
+        bar.setPartSize(0, 1.3);
+        bar.setPartSize(1, 1.5);
+
+        assertEquals(0, bar.dirtyCount);
+        assertArrayEquals(new double[] { 1.0, 2.0 }, getSizes(bar), DELTA);
+
+        bar.setPartSize(0, 1.6);
+
+        assertEquals(1, bar.dirtyCount);
+        assertEquals(1.6, bar.getPartSize(0), DELTA);
+    }
+
+    @Test
+    public void testSizeEpsilonKeepsOtherChanges() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0 });
+        bar.setSizeEpsilon(0.5);
+
+        bar.setPartSize(0, 1.2, "caption");
+
+        assertEquals(1.0, bar.getPartSize(0), DELTA);
+        assertEquals("caption", bar.getPartCaption(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeSizeEpsilon() {
+        new DistributionBar().setSizeEpsilon(-0.1);
+    }
+
+    @Test
+    public void testIncrementalUpdatesSendDeltas() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0, 3.0 });
+        bar.setIncrementalUpdates(true);
+        bar.beforeClientResponse(true);
+        bar.retrievePendingRpcCalls();
+
+        bar.setPartSize(1, 5.0);
+        bar.setPartCaption(2, "three");
+        bar.beforeClientResponse(false);
+        List<ClientMethodInvocation> calls = bar.retrievePendingRpcCalls();
+
+        ClientMethodInvocation sizes = findCall(calls, "updateSizes");
+        assertArrayEquals(new int[] { 1 }, (int[]) sizes.getParameters()[0]);
+        assertArrayEquals(new double[] { 5.0 }, (double[]) sizes.getParameters()[1], DELTA);
+        ClientMethodInvocation captions = findCall(calls, "updateCaptions");
+        assertArrayEquals(new int[] { 2 }, (int[]) captions.getParameters()[0]);
+        assertArrayEquals(new String[] { "three" }, (String[]) captions.getParameters()[1]);
+
+        // Parts are not written to state
+        assertArrayEquals(new double[] { 1.0, 2.0, 3.0 }, bar.getState(false).sizes, DELTA);
+        assertNull(bar.getState(false).readPart(2).getCaption());
+    }
+
+    @Test
+    public void testDecorationChangeWritesParts() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0 });
+        bar.setIncrementalUpdates(true);
+        bar.beforeClientResponse(true);
+        bar.retrievePendingRpcCalls();
+
+        bar.setPartSize(0, 4.0);
+        bar.setPartTitle(1, "title");
+        bar.beforeClientResponse(false);
+
+        assertTrue(bar.retrievePendingRpcCalls().isEmpty());
+        assertArrayEquals(new double[] { 4.0, 2.0 }, bar.getState(false).sizes, DELTA);
+        assertEquals("title", bar.getState(false).readPart(1).getTitle());
+    }
+
+    @Test
+    public void testUnchangedColumnIsResentAfterDeltas() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0, 3.0 });
+        bar.setIncrementalUpdates(true);
+        bar.beforeClientResponse(true);
+        bar.setPartSize(1, 5.0);
+        bar.beforeClientResponse(false);
+        bar.retrievePendingRpcCalls();
+
+        // Sizes written to state equal the sizes in state before, so only the deltas can fix the client
+        bar.setPartSize(1, 2.0);
+        bar.setPartTitle(0, "title");
+        bar.beforeClientResponse(false);
+
+        ClientMethodInvocation sizes = findCall(bar.retrievePendingRpcCalls(), "updateSizes");
+        assertArrayEquals(new int[] { 0, 1, 2 }, (int[]) sizes.getParameters()[0]);
+        assertArrayEquals(new double[] { 1.0, 2.0, 3.0 }, (double[]) sizes.getParameters()[1], DELTA);
+    }
+
+    @Test
+    public void testChangedColumnIsNotResent() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0 });
+        bar.setIncrementalUpdates(true);
+        bar.beforeClientResponse(true);
+        bar.setPartSize(1, 5.0);
+        bar.beforeClientResponse(false);
+        bar.retrievePendingRpcCalls();
+
+        bar.setPartSize(0, 3.0);
+        bar.setPartTitle(0, "title");
+        bar.beforeClientResponse(false);
+
+        assertNull(findCall(bar.retrievePendingRpcCalls(), "updateSizes"));
+        assertArrayEquals(new double[] { 3.0, 5.0 }, bar.getState(false).sizes, DELTA);
+    }
+
+    @Test
+    public void testCaptionDeltasWritePartsAtLimit() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0 });
+        bar.setIncrementalUpdates(true);
+        bar.beforeClientResponse(true);
+
+        for (int i = 0; i < 256; ++i) {
+            bar.setPartCaption(0, "caption " + i);
+            bar.beforeClientResponse(false);
+        }
+        assertNull(bar.getState(false).readPart(0).getCaption());
+
+        bar.setPartCaption(0, "last");
+        bar.beforeClientResponse(false);
+
+        assertEquals("last", bar.getState(false).readPart(0).getCaption());
+    }
+
+    @Test
+    public void testWithoutIncrementalUpdates() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0 });
+        bar.beforeClientResponse(true);
+
+        bar.setPartSize(0, 3.0);
+        bar.beforeClientResponse(false);
+
+        assertTrue(bar.retrievePendingRpcCalls().isEmpty());
+        assertArrayEquals(new double[] { 3.0, 2.0 }, bar.getState(false).sizes, DELTA);
+    }
+
+    @Test
+    public void testAddPart() {
+        DistributionBar bar = new DistributionBar(1);
+        bar.addPart("a", 1.0).addPart("c", 3.0, "three").addPart(1, "b", 2.0, null);
+
+        assertEquals(4, bar.getNumberOfParts());
+        assertEquals(1, bar.getPartIndex("b"));
+        assertEquals(2, bar.getPartIndex("a"));
+        assertEquals("c", bar.getPartKey(3));
+        assertEquals("three", bar.getPartCaption(3));
+        assertNull(bar.getPartKey(0));
+        assertEquals(-1, bar.getPartIndex("d"));
+        assertEquals(-1, bar.getPartIndex(null));
+    }
+
+    @Test
+    public void testAddPartRejectsInvalidValues() {
+        DistributionBar bar = new DistributionBar(1);
+        bar.addPart("a", 1.0);
+
+        try {
+            bar.addPart("a", 2.0);
+            fail("Duplicate key should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            bar.addPart(null, 2.0);
+            fail("Null key should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            bar.addPart("b", Double.NaN);
+            fail("NaN size should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            bar.addPart(3, "b", 2.0, null);
+            fail("Index after the end should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            bar.addPart(-1, "b", 2.0, null);
+            fail("Negative index should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertEquals(2, bar.getNumberOfParts());
+    }
+
+    @Test
+    public void testRemovePart() {
+        DistributionBar bar = createKeyedBar();
+
+        assertTrue(bar.removePart("b"));
+        assertFalse(bar.removePart("b"));
+
+        assertEquals(3, bar.getNumberOfParts());
+        assertEquals(2, bar.getPartIndex("c"));
+        assertArrayEquals(new double[] { 0.0, 1.0, 3.0 }, getSizes(bar), DELTA);
+    }
+
+    @Test
+    public void testMovePart() {
+        DistributionBar bar = createKeyedBar();
+
+        bar.movePart("c", 1);
+        assertArrayEquals(new double[] { 0.0, 3.0, 1.0, 2.0 }, getSizes(bar), DELTA);
+
+        bar.movePart("c", 3);
+        assertArrayEquals(new double[] { 0.0, 1.0, 2.0, 3.0 }, getSizes(bar), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMoveUnknownPart() {
+        createKeyedBar().movePart("d", 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testMovePartToInvalidIndex() {
+        createKeyedBar().movePart("a", 4);
+    }
+
+    @Test
+    public void testClickIsMappedToCurrentIndex() {
+        DistributionBar bar = createKeyedBar();
+        final List<DistributionBarClickEvent> events = new ArrayList<DistributionBarClickEvent>();
+        bar.addDistributionBarClickListener(events::add);
+
+        // Client still has parts in order: unkeyed, a, b, c
+        bar.movePart("c", 0);
+        bar.removePart("a");
+        DistributionBarServerRpc rpc = getServerRpc(bar);
+        rpc.onItemClicked(3, new MouseEventDetails());
+        rpc.onItemClicked(1, new MouseEventDetails());
+        rpc.onItemClicked(0, new MouseEventDetails());
+
+        assertEquals(2, events.size());
+        assertEquals(0, events.get(0).getPartIndex());
+        assertEquals("c", events.get(0).getPartKey());
+        // Unkeyed part keeps the index given by client
+        assertEquals(0, events.get(1).getPartIndex());
+        assertNull(events.get(1).getPartKey());
+    }
+
+    @Test
+    public void testTooltipRequestIsMappedToCurrentIndex() {
+        DistributionBar bar = createKeyedBar();
+        final List<Integer> requested = new ArrayList<Integer>();
+        bar.setTooltipProvider((distributionBar, partIndex) -> {
+            requested.add(partIndex);
+            return "tooltip " + partIndex;
+        });
+        bar.movePart("b", 3);
+        bar.removePart("a");
+
+        DistributionBarServerRpc rpc = getServerRpc(bar);
+        rpc.onTooltipRequested(2);
+        rpc.onTooltipRequested(1);
+        List<ClientMethodInvocation> calls = bar.retrievePendingRpcCalls();
+
+        assertEquals(1, requested.size());
+        assertEquals(2, (int) requested.get(0));
+        assertEquals(2, calls.size());
+        // Answers use index given by client
+        assertArrayEquals(new Object[] { 2, 0, "tooltip 2" }, calls.get(0).getParameters());
+        // Removed part is answered with version that is not cached
+        assertArrayEquals(new Object[] { 1, -1, "" }, calls.get(1).getParameters());
+    }
+
+    @Test
+    public void testApplyOfferedSizes() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0 });
+        double[] offered = new double[] { 3.0, 4.0 };
+
+        bar.offerSizes(new double[] { 5.0, 6.0 });
+        bar.offerSizes(offered);
+        offered[0] = 7.0;
+
+        assertArrayEquals(new double[] { 1.0, 2.0 }, getSizes(bar), DELTA);
+        assertTrue(bar.applyOfferedSizes());
+        assertArrayEquals(new double[] { 3.0, 4.0 }, getSizes(bar), DELTA);
+        assertFalse(bar.applyOfferedSizes());
+    }
+
+    @Test
+    public void testInvalidOfferKeepsEarlierOffer() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0 });
+        bar.offerSizes(new double[] { 3.0, 4.0 });
+
+        try {
+            bar.offerSizes(new double[] { 5.0, Double.NaN });
+            fail("NaN size should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertTrue(bar.applyOfferedSizes());
+        assertArrayEquals(new double[] { 3.0, 4.0 }, getSizes(bar), DELTA);
+    }
+
+    @Test
+    public void testOfferedSizesAreAppliedBeforeResponse() {
+        DistributionBar bar = new DistributionBar(new double[] { 1.0, 2.0, 3.0 });
+        bar.beforeClientResponse(true);
+
+        bar.offerSizes(new double[] { 4.0, 5.0 });
+        bar.beforeClientResponse(false);
+
+        assertArrayEquals(new double[] { 4.0, 5.0, 3.0 }, bar.getState(false).sizes, DELTA);
+        assertFalse(bar.applyOfferedSizes());
+    }
+}
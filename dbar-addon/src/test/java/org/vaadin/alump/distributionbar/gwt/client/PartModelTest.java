@@ -0,0 +1,133 @@
+package org.vaadin.alump.distributionbar.gwt.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PartModelTest {
+
+    private static final double DELTA = 0.0;
+
+    private static PartModel createModel(double... sizes) {
+        PartModel model = new PartModel();
+        for (int i = 0; i < sizes.length; ++i) {
+            model.add(sizes[i], "caption " + i);
+        }
+        return model;
+    }
+
+    @Test
+    public void testAddAndInsert() {
+        PartModel model = createModel(1.0, 3.0);
+        model.insert(1, 2.0, null);
+        model.insert(0, 0.5, "first");
+
+        assertEquals(4, model.size());
+        assertEquals(0.5, model.getSize(0), DELTA);
+        assertEquals("first", model.getCaption(0));
+        assertEquals(2.0, model.getSize(2), DELTA);
+        assertNull(model.getCaption(2));
+        assertEquals("caption 1", model.getCaption(3));
+        assertEquals(6.5, model.getTotal(), DELTA);
+    }
+
+    @Test
+    public void testGrowsOverInitialCapacity() {
+        PartModel model = new PartModel();
+        for (int i = 0; i < 100; ++i) {
+            model.add(i, null);
+        }
+
+        assertEquals(100, model.size());
+        assertEquals(99.0, model.getSize(99), DELTA);
+        assertEquals(4950.0, model.getTotal(), DELTA);
+    }
+
+    @Test
+    public void testRemove() {
+        PartModel model = createModel(1.0, 2.0, 3.0);
+        model.setTooltip(2, "tooltip");
+        model.remove(0);
+
+        assertEquals(2, model.size());
+        assertEquals(2.0, model.getSize(0), DELTA);
+        assertEquals("tooltip", model.getTooltip(1));
+        assertEquals(5.0, model.getTotal(), DELTA);
+    }
+
+    @Test
+    public void testMove() {
+        PartModel model = createModel(1.0, 2.0, 3.0, 4.0);
+        model.setTooltip(0, "tooltip");
+
+        model.move(0, 2);
+        assertEquals(2.0, model.getSize(0), DELTA);
+        assertEquals(3.0, model.getSize(1), DELTA);
+        assertEquals(1.0, model.getSize(2), DELTA);
+        assertEquals("tooltip", model.getTooltip(2));
+
+        model.move(3, 0);
+        assertEquals(4.0, model.getSize(0), DELTA);
+        assertEquals(2.0, model.getSize(1), DELTA);
+        assertEquals("caption 0", model.getCaption(3));
+        assertEquals(10.0, model.getTotal(), DELTA);
+    }
+
+    @Test
+    public void testSetUpdatesTotal() {
+        PartModel model = createModel(1.0, 2.0, 3.0);
+        model.set(1, 5.0, "five");
+
+        assertEquals(5.0, model.getSize(1), DELTA);
+        assertEquals("five", model.getCaption(1));
+        assertEquals(9.0, model.getTotal(), DELTA);
+    }
+
+    @Test
+    public void testTotalDoesNotDrift() {
+        PartModel model = createModel(0.0, 0.0, 0.0);
+        for (int i = 0; i < 10000; ++i) {
+            model.set(i % 3, 0.1 * (i % 7) + 1e9 * (i % 2), null);
+        }
+
+        double expected = 0.0;
+        for (int i = 0; i < model.size(); ++i) {
+            expected += model.getSize(i);
+        }
+        assertEquals(expected, model.getTotal(), 1e-6);
+    }
+
+    @Test
+    public void testTotalOfZeroSizesIsZero() {
+        PartModel model = createModel(0.1, 0.2, 0.3);
+        model.set(0, 0.0, null);
+        model.set(1, 0.0, null);
+        model.set(2, 0.0, null);
+
+        assertEquals(0.0, model.getTotal(), DELTA);
+    }
+
+    @Test
+    public void testClear() {
+        PartModel model = createModel(1.0, 2.0);
+        model.clear();
+
+        assertTrue(model.isEmpty());
+        assertEquals(0.0, model.getTotal(), DELTA);
+
+        model.add(4.0, null);
+        assertEquals(4.0, model.getTotal(), DELTA);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testInsertToInvalidIndex() {
+        createModel(1.0).insert(2, 1.0, null);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetInvalidIndex() {
+        createModel(1.0).getSize(1);
+    }
+}
@@ -0,0 +1,103 @@
+package org.vaadin.alump.distributionbar.gwt.client.connect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+import org.junit.Test;
+import org.vaadin.alump.distributionbar.gwt.client.shared.DistributionBarState;
+
+public class PartTemplateTest {
+
+    /**
+     * NumberFormat of GWT only works in browser, so values are formatted with
+     * DecimalFormat
+     */
+    private static class TestPartTemplate extends PartTemplate {
+
+        public TestPartTemplate(String template, boolean html) {
+            super(template, html);
+        }
+
+        @Override
+        protected String formatNumber(double value) {
+            return new DecimalFormat("#,##0.###", new DecimalFormatSymbols(Locale.US)).format(value);
+        }
+
+        @Override
+        protected String formatPercentage(double pct) {
+            return new DecimalFormat("0.#", new DecimalFormatSymbols(Locale.US)).format(pct);
+        }
+    }
+
+    private static DistributionBarState.Part createPart(double size, String name) {
+        DistributionBarState.Part part = new DistributionBarState.Part();
+        part.setSize(size);
+        part.setName(name);
+        return part;
+    }
+
+    @Test
+    public void testPlaceholders() {
+        PartTemplate template = new TestPartTemplate("{name}: {value} ({pct}%) of {total} #{index}", false);
+
+        assertEquals("Apples: 25 (12.5%) of 200 #1", template.render(1, createPart(25.0, "Apples"), 200.0));
+    }
+
+    @Test
+    public void testRepeatedPlaceholders() {
+        PartTemplate template = new TestPartTemplate("{value}/{value}{value}", false);
+
+        assertEquals("1,500/1,5001,500", template.render(0, createPart(1500.0, null), 1500.0));
+    }
+
+    @Test
+    public void testUnknownPlaceholdersAreKept() {
+        PartTemplate template = new TestPartTemplate("{foo} { {value} {index", false);
+
+        assertEquals("{foo} { 3 {index", template.render(0, createPart(3.0, null), 3.0));
+    }
+
+    @Test
+    public void testValuesAreNotScannedForPlaceholders() {
+        PartTemplate template = new TestPartTemplate("{name} {index}", false);
+
+        assertEquals("{value} 2", template.render(2, createPart(3.0, "{value}"), 3.0));
+    }
+
+    @Test
+    public void testNameIsEscapedInHtml() {
+        DistributionBarState.Part part = createPart(1.0, "<b>A&B</b>");
+
+        assertEquals("<i>&lt;b&gt;A&amp;B&lt;/b&gt;</i>",
+                new TestPartTemplate("<i>{name}</i>", true).render(0, part, 1.0));
+        assertEquals("<b>A&B</b>", new TestPartTemplate("{name}", false).render(0, part, 1.0));
+    }
+
+    @Test
+    public void testMissingNameAndZeroTotal() {
+        PartTemplate template = new TestPartTemplate("[{name}] {pct}%", false);
+
+        assertEquals("[] 0%", template.render(0, createPart(0.0, null), 0.0));
+    }
+
+    @Test
+    public void testTemplateWithoutPlaceholders() {
+        PartTemplate template = new TestPartTemplate("", false);
+
+        assertEquals("", template.render(0, createPart(1.0, "A"), 1.0));
+    }
+
+    @Test
+    public void testIsTemplate() {
+        PartTemplate template = new TestPartTemplate("{name}", true);
+
+        assertTrue(template.isTemplate("{name}", true));
+        assertFalse(template.isTemplate("{name}", false));
+        assertFalse(template.isTemplate("{value}", true));
+    }
+}
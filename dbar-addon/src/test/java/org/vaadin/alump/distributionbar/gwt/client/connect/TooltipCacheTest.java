@@ -0,0 +1,57 @@
+package org.vaadin.alump.distributionbar.gwt.client.connect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class TooltipCacheTest {
+
+    @Test
+    public void testPutAndGet() {
+        TooltipCache cache = new TooltipCache();
+        cache.put(0, 1, "first");
+        cache.put(1, 1, "second");
+
+        assertEquals("first", cache.get(0, 1));
+        assertEquals("second", cache.get(1, 1));
+        assertNull(cache.get(2, 1));
+    }
+
+    @Test
+    public void testOtherVersionIsNotReturned() {
+        TooltipCache cache = new TooltipCache();
+        cache.put(0, 1, "old");
+
+        assertNull(cache.get(0, 2));
+        // Outdated entry is dropped
+        assertNull(cache.get(0, 1));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        TooltipCache cache = new TooltipCache(2);
+        cache.put(0, 0, "zero");
+        cache.put(1, 0, "one");
+        cache.get(0, 0);
+        cache.put(2, 0, "two");
+
+        assertEquals("zero", cache.get(0, 0));
+        assertNull(cache.get(1, 0));
+        assertEquals("two", cache.get(2, 0));
+    }
+
+    @Test
+    public void testInvalidateAndClear() {
+        TooltipCache cache = new TooltipCache();
+        cache.put(0, 0, "zero");
+        cache.put(1, 0, "one");
+
+        cache.invalidate(0);
+        assertNull(cache.get(0, 0));
+        assertEquals("one", cache.get(1, 0));
+
+        cache.clear();
+        assertNull(cache.get(1, 0));
+    }
+}
@@ -0,0 +1,145 @@
+package org.vaadin.alump.distributionbar.gwt.client.dom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParseException;
+import java.util.Locale;
+
+import org.junit.Test;
+import org.vaadin.alump.distributionbar.gwt.client.shared.ValueFormat;
+
+public class ValueFormatterTest {
+
+    /**
+     * NumberFormat of GWT only works in browser, so values are formatted with
+     * DecimalFormat using same patterns
+     */
+    private static class TestValueFormatter extends ValueFormatter {
+        private int formatCount;
+
+        public TestValueFormatter(ValueFormat format, String pattern) {
+            super(format, pattern);
+        }
+
+        @Override
+        protected NumberFormatter createNumberFormatter() {
+            String pattern = getPattern();
+            if (pattern == null) {
+                switch (getFormat()) {
+                case PERCENTAGE:
+                    pattern = "#,##0%";
+                    break;
+                case COMPACT:
+                    pattern = COMPACT_PATTERN;
+                    break;
+                default:
+                    pattern = ABSOLUTE_PATTERN;
+                }
+            }
+
+            final DecimalFormat decimalFormat = new DecimalFormat(pattern, new DecimalFormatSymbols(Locale.US));
+            return new NumberFormatter() {
+                @Override
+                public String format(double value) {
+                    ++formatCount;
+                    return decimalFormat.format(value);
+                }
+
+                @Override
+                public double parse(String text) throws NumberFormatException {
+                    try {
+                        return decimalFormat.parse(text).doubleValue();
+                    } catch (ParseException e) {
+                        throw new NumberFormatException(e.getMessage());
+                    }
+                }
+            };
+        }
+    }
+
+    @Test
+    public void testAbsolute() {
+        ValueFormatter formatter = new TestValueFormatter(ValueFormat.ABSOLUTE, null);
+
+        assertEquals("1,234.57", formatter.format(1234.567, 0.0));
+        assertEquals("0", formatter.format(0.0, 0.0));
+    }
+
+    @Test
+    public void testPattern() {
+        ValueFormatter formatter = new TestValueFormatter(ValueFormat.ABSOLUTE, "0.000");
+
+        assertEquals("1.500", formatter.format(1.5, 0.0));
+    }
+
+    @Test
+    public void testPercentage() {
+        ValueFormatter formatter = new TestValueFormatter(ValueFormat.PERCENTAGE, null);
+
+        assertEquals("25%", formatter.format(1.0, 4.0));
+        assertEquals("0%", formatter.format(1.0, 0.0));
+    }
+
+    @Test
+    public void testCompact() {
+        ValueFormatter formatter = new TestValueFormatter(ValueFormat.COMPACT, null);
+
+        assertEquals("999", formatter.format(999.0, 0.0));
+        assertEquals("1.2k", formatter.format(1234.0, 0.0));
+        assertEquals("3.4M", formatter.format(3.4e6, 0.0));
+        assertEquals("-2k", formatter.format(-2000.0, 0.0));
+    }
+
+    @Test
+    public void testCompactRoundingMovesToNextUnit() {
+        ValueFormatter formatter = new TestValueFormatter(ValueFormat.COMPACT, null);
+
+        assertEquals("1M", formatter.format(999960.0, 0.0));
+        assertEquals("1k", formatter.format(999.96, 0.0));
+    }
+
+    @Test
+    public void testTextIsCachedPerPart() {
+        TestValueFormatter formatter = new TestValueFormatter(ValueFormat.ABSOLUTE, null);
+
+        assertEquals("1", formatter.format(0, 1.0, 10.0));
+        assertEquals("1", formatter.format(0, 1.0, 20.0));
+        assertEquals("2", formatter.format(1, 2.0, 20.0));
+        assertEquals(2, formatter.formatCount);
+
+        assertEquals("3", formatter.format(0, 3.0, 20.0));
+        assertEquals(3, formatter.formatCount);
+
+        formatter.clearCache();
+        assertEquals("3", formatter.format(0, 3.0, 20.0));
+        assertEquals(4, formatter.formatCount);
+    }
+
+    @Test
+    public void testPercentageIsFormattedAgainWhenTotalChanges() {
+        TestValueFormatter formatter = new TestValueFormatter(ValueFormat.PERCENTAGE, null);
+
+        assertEquals("10%", formatter.format(0, 1.0, 10.0));
+        assertEquals("10%", formatter.format(0, 1.0, 10.0));
+        assertEquals(1, formatter.formatCount);
+
+        assertEquals("5%", formatter.format(0, 1.0, 20.0));
+        assertEquals(2, formatter.formatCount);
+    }
+
+    @Test
+    public void testIsFormat() {
+        ValueFormatter formatter = new TestValueFormatter(null, null);
+
+        assertEquals(ValueFormat.ABSOLUTE, formatter.getFormat());
+        assertTrue(formatter.isFormat(null, null));
+        assertTrue(formatter.isFormat(ValueFormat.ABSOLUTE, null));
+        assertFalse(formatter.isFormat(ValueFormat.ABSOLUTE, "0.0"));
+        assertFalse(formatter.isFormat(ValueFormat.COMPACT, null));
+        assertTrue(new TestValueFormatter(ValueFormat.COMPACT, "0.0").isFormat(ValueFormat.COMPACT, "0.0"));
+    }
+}